@@ -0,0 +1,257 @@
+/**
+ * AmbientTalk/2 Project
+ * ActorRegistry.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import edu.vub.at.actors.eventloops.EventLoop;
+import edu.vub.at.actors.eventloops.EventQueue;
+import edu.vub.at.actors.natives.ELActor;
+import edu.vub.at.actors.natives.SharedActorField;
+import edu.vub.at.util.logging.Logging;
+
+/**
+ * An ActorRegistry keeps track of the live actors of a shell, such that their memory usage can be
+ * reported (using the :heap command or <tt>system.heap(n)</tt>) to find actors that leak memory
+ * without taking a heap dump. Actors register themselves when their shared actor fields are
+ * initialized, and are forgotten once they are garbage collected.
+ * <p>
+ * For every actor, the registry reports:
+ * <ul>
+ *   <li>the number of bytes allocated by the actor's thread so far, as measured by the JVM.
+ *   <li>an estimate of the memory retained by the actor's behaviour (i.e. everything reachable from
+ *       the actor except for its mailbox, other actors and the shell), see {@link RetainedSizeEstimator}.
+ *   <li>an estimate of the memory retained by the actor's mailbox, and the number of messages in it.
+ * </ul>
+ * The number of objects visited to estimate retained sizes is bounded by a budget which is shared by
+ * all actors, such that reporting remains cheap when there are many actors.
+ */
+public final class ActorRegistry {
+
+	private static final ThreadMXBean _THREADS_ = ManagementFactory.getThreadMXBean();
+
+	/** the minimum number of objects visited per actor, regardless of the number of actors */
+	private static final int _MIN_ACTOR_BUDGET_ = 1000;
+
+	/**
+	 * The interpreter does not expose the event queue of an event loop, so it is read reflectively,
+	 * just like {@link RetainedSizeEstimator} reads the fields of the objects it visits.
+	 * Null if the field cannot be accessed, in which case mailboxes are reported as empty.
+	 */
+	private static final Field _EVENT_QUEUE_ = eventQueueField();
+
+	private static Field eventQueueField() {
+		try {
+			Field field = EventLoop.class.getDeclaredField("eventQueue_");
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			Logging.Init_LOG.warn("cannot access the mailboxes of actors: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the event queue of the given event loop, e.g. to estimate the memory it retains, or null
+	 * if it cannot be accessed. The queue should not be modified.
+	 */
+	public static EventQueue mailboxOf(EventLoop loop) {
+		if (_EVENT_QUEUE_ == null) {
+			return null;
+		}
+		try {
+			return (EventQueue) _EVENT_QUEUE_.get(loop);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the number of events waiting to be processed by the given event loop. As the queue is
+	 * concurrently modified, the result is only an approximation by the time it is returned.
+	 */
+	public static int mailboxLength(EventLoop loop) {
+		EventQueue mailbox = mailboxOf(loop);
+		return mailbox == null ? 0 : mailbox.size();
+	}
+
+	/**
+	 * The memory usage of a single actor.
+	 */
+	public static final class Usage {
+		public final String actor;
+		/** the number of bytes allocated by the actor's thread, or -1 if the JVM cannot measure it */
+		public final long allocatedBytes;
+		public final long behaviourBytes;
+		public final long mailboxBytes;
+		public final int mailboxLength;
+		/** whether the estimates are lower bounds, because the walk of the actor exceeded its budget */
+		public final boolean truncated;
+
+		private Usage(String actor, long allocatedBytes, long behaviourBytes, long mailboxBytes, int mailboxLength, boolean truncated) {
+			this.actor = actor;
+			this.allocatedBytes = allocatedBytes;
+			this.behaviourBytes = behaviourBytes;
+			this.mailboxBytes = mailboxBytes;
+			this.mailboxLength = mailboxLength;
+			this.truncated = truncated;
+		}
+
+		/** @return the estimated number of bytes retained by the actor */
+		public long getRetainedBytes() {
+			return behaviourBytes + mailboxBytes;
+		}
+	}
+
+	private static final class Registration {
+		final String name_;
+		final long threadId_;
+
+		Registration(String name, long threadId) {
+			name_ = name;
+			threadId_ = threadId;
+		}
+	}
+
+	private final Map<ELActor, Registration> actors_ = Collections.synchronizedMap(new WeakHashMap<ELActor, Registration>());
+	private final int walkBudget_;
+	private final int sampleSize_;
+
+	/**
+	 * @param walkBudget the number of objects visited to estimate the retained size of all actors
+	 * @param sampleSize the number of elements walked of a larger array or collection
+	 */
+	public ActorRegistry(int walkBudget, int sampleSize) {
+		walkBudget_ = walkBudget;
+		sampleSize_ = sampleSize;
+	}
+
+	/**
+	 * Registers the actor executing this method.
+	 */
+	public void register(ELActor actor) {
+		Thread thread = Thread.currentThread();
+		actors_.put(actor, new Registration(thread.getName(), thread.getId()));
+	}
+
+	/** @return the number of registered actors which have not been garbage collected */
+	public int size() {
+		return actors_.size();
+	}
+
+	/**
+	 * @return the number of events waiting in the mailboxes of all registered actors, an approximation
+	 * like {@link #mailboxLength(EventLoop)}
+	 */
+	public int pendingEvents() {
+		List<ELActor> actors;
+		synchronized (actors_) {
+			actors = new ArrayList<ELActor>(actors_.keySet());
+		}
+		int pending = 0;
+		for (ELActor actor : actors) {
+			if (actor != null) {
+				pending += mailboxLength(actor);
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Measures the memory usage of every registered actor.
+	 * @param top the maximum number of actors to report
+	 * @return the usage of the actors that retain the most memory, in descending order
+	 */
+	public List<Usage> measure(int top) {
+		List<Map.Entry<ELActor, Registration>> actors;
+		synchronized (actors_) {
+			actors = new ArrayList<Map.Entry<ELActor, Registration>>(actors_.entrySet());
+		}
+		RetainedSizeEstimator estimator = new RetainedSizeEstimator(
+				Math.max(_MIN_ACTOR_BUDGET_, walkBudget_ / Math.max(1, actors.size())), sampleSize_,
+				EventLoop.class, EmbeddableAmbientTalk.class, IATIO.class, SharedActorField.class, java.lang.ref.Reference.class);
+		List<Usage> usages = new ArrayList<Usage>(actors.size());
+		for (Map.Entry<ELActor, Registration> entry : actors) {
+			ELActor actor = entry.getKey();
+			if (actor == null) {
+				continue; // collected in the meantime
+			}
+			EventQueue mailbox = mailboxOf(actor);
+			RetainedSizeEstimator.Estimate behaviour = estimator.estimate(actor, mailbox);
+			RetainedSizeEstimator.Estimate queued = estimator.estimate(mailbox);
+			usages.add(new Usage(entry.getValue().name_, allocatedBytes(entry.getValue().threadId_),
+					behaviour.bytes, queued.bytes, mailbox == null ? 0 : mailbox.size(), behaviour.truncated || queued.truncated));
+		}
+		Collections.sort(usages, new Comparator<Usage>() {
+			public int compare(Usage a, Usage b) {
+				return Long.compare(b.getRetainedBytes(), a.getRetainedBytes());
+			}
+		});
+		return (usages.size() > top) ? new ArrayList<Usage>(usages.subList(0, top)) : usages;
+	}
+
+	/**
+	 * @return a table with one row per actor, where estimates that are lower bounds are marked with '>'
+	 */
+	public static String toTable(List<Usage> usages) {
+		StringBuffer table = new StringBuffer();
+		table.append(String.format(Locale.ROOT, "%-32s %14s %14s %14s %8s%n",
+				"Actor", "Retained(KiB)", "Mailbox(KiB)", "Allocated(MiB)", "Queued"));
+		for (Usage usage : usages) {
+			String mark = usage.truncated ? ">" : "";
+			table.append(String.format(Locale.ROOT, "%-32s %14s %14s %14s %8d%n",
+					usage.actor, mark + (usage.getRetainedBytes() + 512) / 1024, mark + (usage.mailboxBytes + 512) / 1024,
+					(usage.allocatedBytes < 0) ? "-" : String.format(Locale.ROOT, "%.1f", usage.allocatedBytes / (1024.0 * 1024.0)),
+					usage.mailboxLength));
+		}
+		return table.toString();
+	}
+
+	/**
+	 * @return the number of bytes allocated so far by the given thread, or -1 if not supported
+	 */
+	private static long allocatedBytes(long threadId) {
+		if (_THREADS_ instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) _THREADS_;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(threadId);
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,312 @@
+/**
+ * AmbientTalk/2 Project
+ * AmbientTalkCluster.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.vub.at.actors.natives.SharedActorField;
+import edu.vub.at.eval.Evaluator;
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.exceptions.XParseError;
+import edu.vub.at.objects.ATAbstractGrammar;
+import edu.vub.at.objects.ATObject;
+import edu.vub.at.util.logging.Logging;
+
+/**
+ * An AmbientTalkCluster boots a number of AmbientTalk virtual machines within a single JVM, which
+ * allows testing service discovery and distributed messaging at scale without launching a JVM per
+ * virtual machine. All virtual machines join the same overlay network and are bound to the same
+ * address (by default the loopback address), such that they only discover one another.
+ * <p>
+ * Every virtual machine has its own evaluator actor. All virtual machines share the same (read-only)
+ * init code and shared actor fields, such that these need to be parsed and computed only once.
+ * <p>
+ * Code can be evaluated on a node synchronously using {@link #eval(int, String)}, or injected
+ * asynchronously using {@link #post(int, String, Output)}. Posted code, such as the code sent by the
+ * <tt>:on</tt> shell command, is subject to the cluster's {@link LinkModel}, which delays and/or drops it. Every node counts how many evaluations were
+ * posted to it, how many of these were dropped, and how many evaluations completed or failed.
+ */
+public class AmbientTalkCluster {
+
+	/** the address to which cluster nodes are bound unless specified otherwise */
+	public static final String _LOOPBACK_ADDRESS_ = "127.0.0.1";
+
+	/**
+	 * Describes the latency and loss of the simulated link over which code is posted to a node.
+	 */
+	public static final class LinkModel {
+		public static final LinkModel _PERFECT_ = new LinkModel(0, 0, 0.0);
+
+		public final long latencyMillis;
+		public final long jitterMillis;
+		public final double lossRate;
+
+		/**
+		 * @param latencyMillis the minimum delay of posted code
+		 * @param jitterMillis an additional random delay between 0 and this number of milliseconds
+		 * @param lossRate the probability (between 0 and 1) that posted code is dropped
+		 */
+		public LinkModel(long latencyMillis, long jitterMillis, double lossRate) {
+			this.latencyMillis = latencyMillis;
+			this.jitterMillis = jitterMillis;
+			this.lossRate = lossRate;
+		}
+	}
+
+	/**
+	 * Reports the outcome of code posted to a node, e.g. on the console of the shell that posted it.
+	 * Its methods are invoked by the evaluator actor of the node that evaluated the code.
+	 */
+	public interface Output {
+		/** prints the value of posted code, whose printing may raise an exception */
+		void printValue(int node, ATObject value) throws InterpreterException;
+		/** reports an exception raised while evaluating or printing posted code */
+		void printException(int node, InterpreterException e);
+		/** reports posted code which does not parse */
+		void printParseError(int node, String script, XParseError e);
+	}
+
+	/**
+	 * A single virtual machine of the cluster, together with its evaluator actor. Errors raised while
+	 * evaluating code on a node are counted, and logged unless the code was posted with an {@link Output}.
+	 */
+	public static final class Node extends EmbeddableAmbientTalk {
+
+		private final int index_;
+		private final IATIO iatio_;
+		private final AtomicLong posted_ = new AtomicLong();
+		private final AtomicLong dropped_ = new AtomicLong();
+		private final AtomicLong evaluated_ = new AtomicLong();
+		private final AtomicLong failed_ = new AtomicLong();
+
+		private Node(int index, IATIO iatio) {
+			index_ = index;
+			iatio_ = iatio;
+			scriptSource_ = "node " + index;
+		}
+
+		public int getIndex() { return index_; }
+
+		/** @return the number of evaluations posted to this node */
+		public long getPostedCount() { return posted_.get(); }
+
+		/** @return the number of posted evaluations dropped by the link model */
+		public long getDroppedCount() { return dropped_.get(); }
+
+		/** @return the number of evaluations which completed, including the ones that failed */
+		public long getEvaluatedCount() { return evaluated_.get(); }
+
+		/** @return the number of evaluations which failed with a parse error or an exception */
+		public long getFailedCount() { return failed_.get(); }
+
+		protected ATObject evaluate(String script) {
+			ATObject result = parseAndSend(script);
+			evaluated_.incrementAndGet();
+			return result;
+		}
+
+		/**
+		 * Schedules the script for evaluation by the evaluator actor without waiting for its result,
+		 * such that a slow node cannot hold up the delivery of code to other nodes.
+		 * @param output if not null, the value of the script or its errors are reported to it
+		 */
+		protected void evaluateLater(final String script, final Output output) {
+			try {
+				final ATAbstractGrammar ast = IATEvents.parse(scriptSource_, script);
+				scheduleEvent(new FutureTask<Object>(new Runnable() {
+					public void run() {
+						try {
+							ATObject value = evalInCurrentActor(ast);
+							if (output != null) {
+								output.printValue(index_, value);
+							}
+						} catch (InterpreterException e) {
+							if (output != null) {
+								failed_.incrementAndGet();
+								output.printException(index_, e);
+							} else {
+								handleATException(script, e);
+							}
+						}
+						evaluated_.incrementAndGet();
+					}
+				}, null));
+			} catch (XParseError e) {
+				if (output != null) {
+					failed_.incrementAndGet();
+					output.printParseError(index_, script, e);
+				} else {
+					handleParseError(script, e);
+				}
+				evaluated_.incrementAndGet();
+			} catch (RejectedExecutionException e) {
+				// the node is overloaded, which counts as a dropped evaluation
+				dropped_.incrementAndGet();
+			}
+		}
+
+		protected ATObject handleParseError(String script, XParseError e) {
+			failed_.incrementAndGet();
+			Logging.VirtualMachine_LOG.error(scriptSource_ + ": parse error in " + e.getMessage());
+			return Evaluator.getNil();
+		}
+
+		protected ATObject handleATException(String script, InterpreterException e) {
+			failed_.incrementAndGet();
+			Logging.VirtualMachine_LOG.error(scriptSource_ + ": " + e.getMessage(), e);
+			return Evaluator.getNil();
+		}
+
+		protected void abort(String message, Exception cause) {
+			Logging.VirtualMachine_LOG.fatal(scriptSource_ + ": " + message, cause);
+		}
+
+		/**
+		 * Nodes do not define a system object of their own: the shared actor fields of the cluster
+		 * are passed in explicitly when it is created.
+		 */
+		public SharedActorField computeSystemObject(Object[] arguments) {
+			return null;
+		}
+
+		protected IATIO getIatio() {
+			return iatio_;
+		}
+	}
+
+	private final Node[] nodes_;
+	private final LinkModel linkModel_;
+	private final Random random_ = new Random();
+	private final ScheduledExecutorService links_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "AmbientTalk cluster links");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Boots the given number of virtual machines.
+	 *
+	 * @param size the number of virtual machines to boot
+	 * @param firstIndex the index of the first virtual machine, used to identify nodes in logs and counters
+	 * @param initCode the init code which is evaluated in every actor of every virtual machine
+	 * @param fields the shared actor fields installed in every actor of every virtual machine
+	 * @param networkName the name of the overlay network which all virtual machines join
+	 * @param ipAddress the address to which all virtual machines are bound
+	 * @param iatio the i/o used by the virtual machines
+	 * @param linkModel the delay and loss to which code posted to a node is subjected
+	 */
+	public AmbientTalkCluster(int size, int firstIndex, ATAbstractGrammar initCode, SharedActorField[] fields,
+			                  String networkName, String ipAddress, IATIO iatio, LinkModel linkModel) {
+		nodes_ = new Node[size];
+		linkModel_ = linkModel;
+		for (int i = 0; i < size; i++) {
+			nodes_[i] = new Node(firstIndex + i, iatio);
+			nodes_[i].initialize(initCode, fields, networkName, ipAddress);
+			Logging.Init_LOG.info("Booted cluster node " + (firstIndex + i) + " on network " + networkName + " at " + ipAddress);
+		}
+	}
+
+	public int size() {
+		return nodes_.length;
+	}
+
+	/**
+	 * @param index the position of the node in this cluster, between 0 and {@link #size()}
+	 * (regardless of the index of the first node).
+	 */
+	public Node getNode(int index) {
+		return nodes_[index];
+	}
+
+	/**
+	 * Evaluates the script on the node at the given position and waits for the result, bypassing the link model.
+	 */
+	public ATObject eval(int node, String script) {
+		return nodes_[node].evaluate(script);
+	}
+
+	/**
+	 * Evaluates the script on every node, one after the other, bypassing the link model.
+	 */
+	public void evalEverywhere(String script) {
+		for (int i = 0; i < nodes_.length; i++) {
+			nodes_[i].evaluate(script);
+		}
+	}
+
+	/**
+	 * Asynchronously evaluates the script on the given node, after the delay determined by the
+	 * link model. The script may also be dropped by the link model, in which case it is never evaluated.
+	 * @param output if not null, the value of the script or its errors are reported to it once it is evaluated
+	 */
+	public void post(int node, final String script, final Output output) {
+		final Node target = nodes_[node];
+		target.posted_.incrementAndGet();
+		long delay;
+		synchronized (random_) {
+			if (random_.nextDouble() < linkModel_.lossRate) {
+				target.dropped_.incrementAndGet();
+				return;
+			}
+			delay = linkModel_.latencyMillis +
+			        (linkModel_.jitterMillis > 0 ? (long) (random_.nextDouble() * linkModel_.jitterMillis) : 0);
+		}
+		links_.schedule(new Runnable() {
+			public void run() {
+				target.evaluateLater(script, output);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return a one-line description of the counters of every node
+	 */
+	public String describeCounters() {
+		StringBuffer description = new StringBuffer();
+		for (int i = 0; i < nodes_.length; i++) {
+			Node node = nodes_[i];
+			description.append("node ").append(node.getIndex())
+			           .append(": posted=").append(node.getPostedCount())
+			           .append(" dropped=").append(node.getDroppedCount())
+			           .append(" evaluated=").append(node.getEvaluatedCount())
+			           .append(" failed=").append(node.getFailedCount())
+			           .append('\n');
+		}
+		return description.toString();
+	}
+
+}
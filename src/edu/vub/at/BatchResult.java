@@ -0,0 +1,69 @@
+/**
+ * AmbientTalk/2 Project
+ * BatchResult.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.objects.ATObject;
+
+/**
+ * The outcome of evaluating a single script of a batch, see {@link EmbeddableAmbientTalk#evalBatch(java.util.List)}:
+ * either the value of the script, or the exception raised while parsing or evaluating it.
+ */
+public final class BatchResult {
+
+	private final ATObject value_;
+	private final InterpreterException error_;
+	
+	private BatchResult(ATObject value, InterpreterException error) {
+		value_ = value;
+		error_ = error;
+	}
+	
+	public static BatchResult success(ATObject value) {
+		return new BatchResult(value, null);
+	}
+	
+	public static BatchResult failure(InterpreterException error) {
+		return new BatchResult(null, error);
+	}
+	
+	public boolean isSuccess() {
+		return error_ == null;
+	}
+	
+	/** @return the value of the script, or null if it failed */
+	public ATObject getValue() {
+		return value_;
+	}
+	
+	/** @return the parse error or exception raised by the script, or null if it succeeded */
+	public InterpreterException getError() {
+		return error_;
+	}
+
+}
@@ -30,24 +30,59 @@ package edu.vub.at;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import edu.vub.at.actors.eventloops.Event;
 import edu.vub.at.actors.natives.ELActor;
 import edu.vub.at.actors.natives.ELVirtualMachine;
 import edu.vub.at.actors.natives.SharedActorField;
 import edu.vub.at.eval.Evaluator;
 import edu.vub.at.exceptions.InterpreterException;
 import edu.vub.at.exceptions.XIOProblem;
+import edu.vub.at.exceptions.XIllegalArgument;
 import edu.vub.at.exceptions.XIllegalOperation;
 import edu.vub.at.exceptions.XParseError;
 import edu.vub.at.exceptions.XTypeMismatch;
 import edu.vub.at.objects.ATAbstractGrammar;
 import edu.vub.at.objects.ATObject;
 import edu.vub.at.objects.coercion.Coercer;
+import edu.vub.at.objects.natives.ArchiveIndex;
+import edu.vub.at.objects.natives.NATBoolean;
+import edu.vub.at.objects.natives.NATByteBufferView;
+import edu.vub.at.objects.natives.NATCallframe;
+import edu.vub.at.objects.natives.NATContext;
+import edu.vub.at.objects.natives.NATFraction;
 import edu.vub.at.objects.natives.NATNumber;
+import edu.vub.at.objects.natives.NATObject;
 import edu.vub.at.objects.natives.SAFLobby;
+import edu.vub.at.objects.natives.NATTable;
+import edu.vub.at.objects.natives.NATText;
 import edu.vub.at.objects.natives.SAFWorkingDirectory;
-import edu.vub.at.parser.NATParser;
+import edu.vub.at.objects.natives.grammar.AGSymbol;
+import edu.vub.at.objects.symbiosis.Symbiosis;
 import edu.vub.at.util.logging.Logging;
 import edu.vub.util.Regexp;
 
@@ -67,9 +102,53 @@ import edu.vub.util.Regexp;
 public abstract class EmbeddableAmbientTalk {
 
 	protected String			scriptSource_;
-	protected ELActor			evaluator_; 
+	protected volatile ELActor	evaluator_; 
 	protected ELVirtualMachine	virtualMachine_;
 	
+	/**
+	 * Determines what happens to an evaluation request when the maximum number of queued
+	 * evaluations is reached, see {@link EmbeddableAmbientTalk#setAdmissionControl}.
+	 */
+	public enum RejectionPolicy {
+		/** the request is rejected immediately with a {@link RejectedExecutionException} */
+		FAIL_FAST,
+		/** the requesting thread waits until a queued evaluation is started */
+		BLOCK
+	}
+	
+	private final AtomicLong eventsScheduled_ = new AtomicLong();
+	private final AtomicLong eventsProcessed_ = new AtomicLong();
+	private final AtomicLong eventsRejected_ = new AtomicLong();
+	private final AtomicLong eventsExpired_ = new AtomicLong();
+	private final AtomicInteger eventsQueued_ = new AtomicInteger();
+	private final AtomicLong totalQueueWait_ = new AtomicLong();
+	private final AtomicLong maxQueueWait_ = new AtomicLong();
+	
+	/** the number of scripts of which {@link #parseCached(String)} remembers the parse tree */
+	private static final int _PARSE_CACHE_SIZE_ = 256;
+	
+	private final LinkedHashMap<String, ATAbstractGrammar> parseCache_ =
+		new LinkedHashMap<String, ATAbstractGrammar>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, ATAbstractGrammar> eldest) {
+				return size() > _PARSE_CACHE_SIZE_;
+			}
+		};
+	
+	/** batches of at least this size are parsed in parallel */
+	private static final int _PARALLEL_PARSE_THRESHOLD_ = 16;
+	private static ExecutorService _PARSERS_ = null;
+	
+	/**
+	 * The tasks scheduled by {@link #scheduleEvent(FutureTask)} that were not started yet, in the order in
+	 * which they were scheduled. When the evaluator actor is replaced, these are moved to the new actor.
+	 */
+	private final Set<ScheduledTask> scheduled_ = Collections.synchronizedSet(new LinkedHashSet<ScheduledTask>());
+	
+	// admission control, disabled by default
+	private volatile Semaphore admissions_ = null;
+	private volatile RejectionPolicy rejectionPolicy_ = RejectionPolicy.FAIL_FAST;
+	private volatile long maxQueueWaitNanos_ = 0;
+	
 	/**
 	 * TODO: maybe add a constructor that calls the default computeObjectPath etc.
 	 *
@@ -114,18 +193,24 @@ public abstract class EmbeddableAmbientTalk {
 	 */
 	protected ATObject parseAndSend(String script) {
 		try {
-			ATAbstractGrammar ast = NATParser.parse(scriptSource_, script);
+			final ATAbstractGrammar ast = IATEvents.parse(scriptSource_, script);
 			
-			// By using sync_eval_event, we force the system to wait for the evaluation result
+			// By performing a synchronous task, we force the system to wait for the evaluation result
 			// This also ensures that any uncaught exceptions raised while evaluating the script
 			// will be re-raised in this thread so that they may be properly caught in the catch
 			// blocks provided below.
-			return evaluator_.sync_event_eval(ast);
+			return sync_performTask(new Callable<ATObject>() {
+				public ATObject call() throws Exception {
+					return evalRecorded("parseAndSend", ast);
+				}
+			});
 			
 		} catch (XParseError e) {
 			return handleParseError(script, e);
 		} catch (InterpreterException e) {
 			return handleATException(script, e);
+		} catch (RejectedExecutionException e) {
+			throw e;
 		} catch (Exception e) {
 			abort("Unexpected exception: " + e.getMessage(), e);
 		}
@@ -133,6 +218,145 @@ public abstract class EmbeddableAmbientTalk {
 		return Evaluator.getNil();
 	}
 	
+	/**
+	 * Equivalent to {@link this#parseAndSend(String)}, but gives up waiting for the result once the given
+	 * timeout has elapsed. In that case, the evaluation is interrupted and the evaluator actor is replaced
+	 * by a fresh one, as described in {@link this#sync_performTask(Callable, long, TimeUnit)}.
+	 * 
+	 * @param script a string containing the AmbientTalk code to be executed.
+	 * @param timeout the maximum time to wait for the result.
+	 * @param unit the unit of the timeout argument.
+	 * @return the result of executing the script, or of executing the error handling template methods.
+	 * @throws TimeoutException if the script was not evaluated within the timeout.
+	 */
+	protected ATObject parseAndSend(String script, long timeout, TimeUnit unit) throws TimeoutException {
+		try {
+			final ATAbstractGrammar ast = IATEvents.parse(scriptSource_, script);
+			
+			return sync_performTask(new Callable<ATObject>() {
+				public ATObject call() throws Exception {
+					return evalRecorded("parseAndSend", ast);
+				}
+			}, timeout, unit);
+			
+		} catch (XParseError e) {
+			return handleParseError(script, e);
+		} catch (InterpreterException e) {
+			return handleATException(script, e);
+		} catch (TimeoutException e) {
+			throw e;
+		} catch (RejectedExecutionException e) {
+			throw e;
+		} catch (Exception e) {
+			abort("Unexpected exception: " + e.getMessage(), e);
+		}
+	
+		return Evaluator.getNil();
+	}
+	
+	/**
+	 * Parses and evaluates a batch of independent scripts. Contrary to calling {@link this#parseAndSend(String)}
+	 * for every script, the evaluator actor is handed the entire batch as a single task, such that the cost of
+	 * handing work to the actor and waiting for its result is paid once per batch. Large batches are parsed in
+	 * parallel. The scripts are evaluated in order, and a script which fails does not prevent the evaluation
+	 * of the remaining scripts.
+	 * <p>
+	 * Errors are not passed to the error handling template methods, but reported in the returned results.
+	 * 
+	 * @param scripts the scripts to evaluate.
+	 * @return the outcome of every script, in the order of the scripts.
+	 * @throws RejectedExecutionException if the batch is not admitted by admission control.
+	 */
+	public List<BatchResult> evalBatch(List<String> scripts) {
+		Object[] items = new Object[scripts.size()];
+		if (items.length >= _PARALLEL_PARSE_THRESHOLD_) {
+			List<Future<Object>> parses = new ArrayList<Future<Object>>(items.length);
+			for (final String script : scripts) {
+				parses.add(parsers().submit(new Callable<Object>() {
+					public Object call() {
+						return prepare(script);
+					}
+				}));
+			}
+			try {
+				for (int i = 0; i < items.length; i++) {
+					items[i] = parses.get(i).get();
+				}
+			} catch (Exception e) {
+				abort("Unexpected exception: " + e.getMessage(), e);
+				return new ArrayList<BatchResult>();
+			}
+		} else {
+			for (int i = 0; i < items.length; i++) {
+				items[i] = prepare(scripts.get(i));
+			}
+		}
+		return evalItems(items);
+	}
+	
+	/**
+	 * Equivalent to {@link this#evalBatch(List)} for scripts that were parsed beforehand, which
+	 * avoids parsing scripts that are evaluated repeatedly.
+	 */
+	public List<BatchResult> evalPreparedBatch(List<PreparedAST> scripts) {
+		return evalItems(scripts.toArray());
+	}
+	
+	/**
+	 * @return a {@link PreparedAST}, or the {@link XParseError} raised while parsing the script
+	 */
+	private Object prepare(String script) {
+		try {
+			return PreparedAST.prepare(scriptSource_, script);
+		} catch (XParseError e) {
+			return e;
+		}
+	}
+	
+	/**
+	 * Evaluates the prepared scripts in order as a single task of the evaluator actor. Items that
+	 * are parse errors are reported as failures without being evaluated.
+	 */
+	private List<BatchResult> evalItems(final Object[] items) {
+		try {
+			return sync_performTask(new Callable<List<BatchResult>>() {
+				public List<BatchResult> call() {
+					List<BatchResult> results = new ArrayList<BatchResult>(items.length);
+					for (int i = 0; i < items.length; i++) {
+						if (items[i] instanceof XParseError) {
+							results.add(BatchResult.failure((XParseError) items[i]));
+							continue;
+						}
+						try {
+							results.add(BatchResult.success(evalInCurrentActor(((PreparedAST) items[i]).getAST())));
+						} catch (InterpreterException e) {
+							results.add(BatchResult.failure(e));
+						}
+					}
+					return results;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw e;
+		} catch (Exception e) {
+			abort("Unexpected exception: " + e.getMessage(), e);
+			return new ArrayList<BatchResult>();
+		}
+	}
+	
+	private static synchronized ExecutorService parsers() {
+		if (_PARSERS_ == null) {
+			_PARSERS_ = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "AmbientTalk batch parser");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _PARSERS_;
+	}
+	
 	/**
 	 * Parses the given script into an AmbientTalk Abstract Syntax Tree, subsequently evaluates this AST 
 	 * with the evaluator and makes the evaluator print the expression into a String.
@@ -153,18 +377,24 @@ public abstract class EmbeddableAmbientTalk {
 	 */
 	protected String parseSendAndPrint(String script) {
 		try {
-			ATAbstractGrammar ast = NATParser.parse(scriptSource_, script);
+			final ATAbstractGrammar ast = IATEvents.parse(scriptSource_, script);
 			
-			// By using sync_eval_event, we force the system to wait for the evaluation result
+			// By performing a synchronous task, we force the system to wait for the evaluation result
 			// This also ensures that any uncaught exceptions raised while evaluating the script
 			// will be re-raised in this thread so that they may be properly caught in the catch
 			// blocks provided below.
-			return evaluator_.sync_event_evalAndPrint(ast);
+			return sync_performTask(new Callable<String>() {
+				public String call() throws Exception {
+					return evalRecorded("parseSendAndPrint", ast).meta_print().javaValue;
+				}
+			});
 			
 		} catch (XParseError e) {
 			return handleParseError(script, e).toString();
 		} catch (InterpreterException e) {
 			return handleATException(script, e).toString();
+		} catch (RejectedExecutionException e) {
+			throw e;
 		} catch (Exception e) {
 			abort("Unexpected exception: " + e.getMessage(), e);
 		}
@@ -172,6 +402,335 @@ public abstract class EmbeddableAmbientTalk {
 		return null;
 	}
 	
+	/**
+	 * Parses the given script, evaluates it with the evaluator and makes the evaluator actor stream the
+	 * printed representation of the result onto the given printer. Contrary to {@link this#parseSendAndPrint(String)}
+	 * the result is never rendered into a single String, such that printing a huge value does not require
+	 * memory proportional to its printed size. The printer is configured to stop after a bounded amount of
+	 * output, the remainder may subsequently be requested using {@link StreamingResultPrinter#printMore()}.
+	 * <p>
+	 * Printing happens in the evaluator actor for the same reasons as outlined in {@link this#parseSendAndPrint(String)}.
+	 * The result of the error handling template methods is printed using {@link String#toString()}.
+	 * 
+	 * @param script a string containing the AmbientTalk code to be executed.
+	 * @param printer the printer on which to stream the printed representation of the script's value.
+	 * @param prefix text to print before the value (e.g. the output prompt of a shell).
+	 */
+	protected void parseSendAndStream(String script, final StreamingResultPrinter printer, final String prefix) {
+		try {
+			final ATAbstractGrammar ast = IATEvents.parse(scriptSource_, script);
+			
+			sync_performTask(new Callable<Object>() {
+				public Object call() throws Exception {
+					printer.print(prefix, evalRecorded("parseSendAndStream", ast));
+					return null;
+				}
+			});
+			
+		} catch (XParseError e) {
+			printer.printText(prefix, handleParseError(script, e).toString());
+		} catch (InterpreterException e) {
+			printer.printText(prefix, handleATException(script, e).toString());
+		} catch (RejectedExecutionException e) {
+			throw e;
+		} catch (Exception e) {
+			abort("Unexpected exception: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Schedules a task to be performed by the evaluator actor and waits until the actor has performed it.
+	 * This is the equivalent of {@link ELActor#sync_event_eval(ATAbstractGrammar)} for arbitrary code that
+	 * has to run inside the evaluator actor, e.g. because it may trigger the execution of AmbientTalk code.
+	 * Any exception raised by the task is re-raised in the calling thread.
+	 * 
+	 * Note: this method should never be called by the evaluator actor itself, as it would wait forever.
+	 * 
+	 * @param task the code to run inside the evaluator actor.
+	 * @return the value returned by the task.
+	 */
+	protected <T> T sync_performTask(Callable<T> task) throws Exception {
+		final FutureTask<T> future = new FutureTask<T>(task);
+		scheduleEvent(future);
+		try {
+			return future.get();
+		} catch (CancellationException e) {
+			throw new RejectedExecutionException("evaluation waited too long in the queue of the evaluator actor");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else {
+				throw (Error) cause;
+			}
+		}
+	}
+	
+	/**
+	 * Equivalent to {@link this#sync_performTask(Callable)}, but waits at most for the given timeout. When the
+	 * timeout elapses, the task is cancelled: if it has not started yet it will not be performed, otherwise the
+	 * evaluator actor's thread is interrupted, such that the task stops at the next blocking operation that
+	 * responds to interruption.
+	 * <p>
+	 * As a task that does not respond to interruption may keep the evaluator actor busy indefinitely, the
+	 * evaluator actor is replaced by a fresh actor on the same virtual machine (see {@link #replaceEvaluator()}),
+	 * such that neither the tasks waiting behind the stalled one nor subsequent tasks are stuck. This only
+	 * happens if the task itself had started: a task that timed out while it was still waiting in the queue,
+	 * e.g. behind another caller's slow evaluation, is merely cancelled, and the evaluator actor (with the
+	 * definitions made in its global scope) is kept.
+	 * 
+	 * @throws TimeoutException if the task was not performed within the timeout.
+	 */
+	protected <T> T sync_performTask(final Callable<T> task, long timeout, TimeUnit unit) throws Exception {
+		final AtomicBoolean started = new AtomicBoolean();
+		final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+			public T call() throws Exception {
+				started.set(true);
+				return task.call();
+			}
+		});
+		ELActor evaluator = evaluator_;
+		scheduleEvent(future);
+		try {
+			return future.get(timeout, unit);
+		} catch (CancellationException e) {
+			throw new RejectedExecutionException("evaluation waited too long in the queue of the evaluator actor");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else {
+				throw (Error) cause;
+			}
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			// a task that never started did not stall the evaluator, and another caller may have
+			// replaced the stalled evaluator already
+			if (started.get() && evaluator == evaluator_) {
+				replaceEvaluator();
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Replaces the evaluator actor by a fresh actor on the same virtual machine, e.g. because it is stalled.
+	 * The tasks scheduled on the old actor that it did not start yet are rescheduled on the new actor, in
+	 * their original order, such that their callers do not wait forever. Tasks that were cancelled meanwhile
+	 * are dropped, which returns their place in the queue to admission control.
+	 * <p>
+	 * The old actor is asked to stop processing once its current event is done. Note that the definitions
+	 * made by earlier evaluations in the global scope of the old actor are not available to the new one.
+	 */
+	protected synchronized void replaceEvaluator() {
+		ELActor stalled = evaluator_;
+		ELActor fresh;
+		try {
+			fresh = virtualMachine_.createEmptyActor().getFarHost();
+		} catch (InterpreterException e) {
+			abort("Fatal error while replacing the evaluator actor:" + e.getMessage(), e);
+			return;
+		}
+		evaluator_ = fresh;
+		ScheduledTask[] queued;
+		synchronized (scheduled_) {
+			queued = scheduled_.toArray(new ScheduledTask[scheduled_.size()]);
+		}
+		int moved = 0;
+		for (ScheduledTask task : queued) {
+			if (task.task_.isCancelled()) {
+				task.discard();
+			} else {
+				task.sendTo(fresh);
+				moved++;
+			}
+		}
+		Logging.VirtualMachine_LOG.warn(scriptSource_ + ": replaced the stalled evaluator actor, moved " + moved + " waiting tasks");
+		stalled.stopProcessing();
+	}
+	
+	/**
+	 * Configures admission control for the tasks scheduled on the evaluator actor, which protects the
+	 * actor from being flooded by evaluation requests. Should be configured before any evaluation
+	 * is requested.
+	 * 
+	 * @param maxQueued the maximum number of tasks waiting to be started by the evaluator actor, or 0 for no limit.
+	 * @param policy what happens to a request when the maximum number of tasks is waiting already.
+	 * @param maxQueueWaitMillis the maximum number of milliseconds a task may wait to be started, or 0 for no limit.
+	 * Tasks that waited longer are not performed, which is reported to the requesting thread
+	 * as a {@link RejectedExecutionException}.
+	 */
+	public void setAdmissionControl(int maxQueued, RejectionPolicy policy, long maxQueueWaitMillis) {
+		admissions_ = (maxQueued > 0) ? new Semaphore(maxQueued) : null;
+		rejectionPolicy_ = policy;
+		maxQueueWaitNanos_ = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+	}
+	
+	/**
+	 * Schedules the given task to be run by the evaluator actor, without waiting for it to complete.
+	 * The number of tasks scheduled this way, and the number of these that were processed, are
+	 * reported by {@link #getScheduledEventCount()} and {@link #getProcessedEventCount()}.
+	 * <p>
+	 * The task is subject to admission control (see {@link #setAdmissionControl}). If it waited too long
+	 * before being started, it is cancelled rather than performed.
+	 * 
+	 * @throws RejectedExecutionException if the task is not admitted.
+	 */
+	protected void scheduleEvent(final FutureTask<?> task) {
+		final Semaphore admissions = admissions_;
+		if (admissions != null) {
+			boolean admitted;
+			if (rejectionPolicy_ == RejectionPolicy.BLOCK) {
+				try {
+					admissions.acquire();
+					admitted = true;
+				} catch (InterruptedException e) {
+					// preserve the interrupt for the caller, which is told that its task was not admitted
+					Thread.currentThread().interrupt();
+					admitted = false;
+				}
+			} else {
+				admitted = admissions.tryAcquire();
+			}
+			if (!admitted) {
+				eventsRejected_.incrementAndGet();
+				throw new RejectedExecutionException("too many evaluations are waiting for the evaluator actor");
+			}
+		}
+		eventsScheduled_.incrementAndGet();
+		eventsQueued_.incrementAndGet();
+		ScheduledTask scheduled = new ScheduledTask(task, admissions);
+		scheduled_.add(scheduled);
+		scheduled.sendTo(evaluator_);
+	}
+	
+	/**
+	 * A task scheduled by {@link EmbeddableAmbientTalk#scheduleEvent(FutureTask)}. It is performed by the first
+	 * evaluator actor that processes it: when a stalled evaluator actor is replaced, the task is sent to the new
+	 * actor as well, and whichever of both actors gets to it first claims it.
+	 */
+	private final class ScheduledTask {
+		final FutureTask<?> task_;
+		final Semaphore admissions_;
+		final long enqueued_ = System.nanoTime();
+		final AtomicBoolean claimed_ = new AtomicBoolean();
+		
+		ScheduledTask(FutureTask<?> task, Semaphore admissions) {
+			task_ = task;
+			admissions_ = admissions;
+		}
+		
+		void sendTo(ELActor actor) {
+			actor.receive(new Event("scheduled task") {
+				public void process(Object actor) {
+					perform();
+				}
+			});
+		}
+		
+		/** @return true if the task was not claimed before, in which case it is no longer waiting */
+		private boolean claim() {
+			if (!claimed_.compareAndSet(false, true)) {
+				return false;
+			}
+			scheduled_.remove(this);
+			eventsQueued_.decrementAndGet();
+			if (admissions_ != null) {
+				admissions_.release();
+			}
+			return true;
+		}
+		
+		/** drops a cancelled task that was not started, which no actor needs to process anymore */
+		void discard() {
+			if (claim()) {
+				eventsProcessed_.incrementAndGet();
+			}
+		}
+		
+		void perform() {
+			if (!claim()) {
+				return;
+			}
+			long wait = System.nanoTime() - enqueued_;
+			totalQueueWait_.addAndGet(wait);
+			long max;
+			while (wait > (max = maxQueueWait_.get()) && !maxQueueWait_.compareAndSet(max, wait));
+			try {
+				if (maxQueueWaitNanos_ > 0 && wait > maxQueueWaitNanos_) {
+					eventsExpired_.incrementAndGet();
+					task_.cancel(false);
+				} else {
+					task_.run();
+				}
+			} finally {
+				eventsProcessed_.incrementAndGet();
+			}
+		}
+	}
+	
+	/** @return the number of events scheduled on the evaluator actor by this embedding */
+	public long getScheduledEventCount() {
+		return eventsScheduled_.get();
+	}
+	
+	/** @return the number of events scheduled on the evaluator actor by this embedding that were processed */
+	public long getProcessedEventCount() {
+		return eventsProcessed_.get();
+	}
+	
+	/** @return the number of events scheduled by this embedding that are waiting to be started */
+	public int getQueuedEventCount() {
+		return eventsQueued_.get();
+	}
+	
+	/** @return the number of events that were not admitted to the queue of the evaluator actor */
+	public long getRejectedEventCount() {
+		return eventsRejected_.get();
+	}
+	
+	/** @return the number of events that were cancelled because they waited too long to be started */
+	public long getExpiredEventCount() {
+		return eventsExpired_.get();
+	}
+	
+	/** @return the total number of nanoseconds that processed events waited before being started */
+	public long getTotalQueueWaitNanos() {
+		return totalQueueWait_.get();
+	}
+	
+	/** @return the longest time (in nanoseconds) that an event waited before being started */
+	public long getMaxQueueWaitNanos() {
+		return maxQueueWait_.get();
+	}
+	
+	/**
+	 * Equivalent to {@link this#evalInCurrentActor(ATAbstractGrammar)}, emitting an {@link IATEvents.Eval}
+	 * flight recorder event which records how the script was evaluated.
+	 */
+	protected ATObject evalRecorded(String kind, ATAbstractGrammar ast) throws InterpreterException {
+		IATEvents.Eval event = new IATEvents.Eval();
+		event.begin();
+		boolean succeeded = false;
+		try {
+			ATObject value = evalInCurrentActor(ast);
+			succeeded = true;
+			return value;
+		} finally {
+			event.end(kind, scriptSource_, succeeded);
+		}
+	}
+	
+	/**
+	 * Evaluates an abstract syntax tree in the global lexical scope of the actor executing this method,
+	 * which is the context in which {@link ELActor#sync_event_eval(ATAbstractGrammar)} evaluates code. 
+	 * This method may only be invoked from within a task performed by an actor.
+	 */
+	protected static ATObject evalInCurrentActor(ATAbstractGrammar ast) throws InterpreterException {
+		NATObject globalScope = Evaluator.getGlobalLexicalScope();
+		return ast.meta_eval(new NATContext(globalScope, globalScope));
+	}
+	
 	/**
 	 * Template method to handle parse errors occurring while parsing the script. This method may be used to
 	 * report but also repair the parse error.
@@ -242,6 +801,21 @@ public abstract class EmbeddableAmbientTalk {
 		return Coercer.coerce(parseAndSend(script), requestedInterface, evaluator_.getExecutor());
 	}
 	
+	/**
+	 * Equivalent to {@link this#evalAndWrap(String, Class)}, but gives up waiting for the result of the
+	 * script once the given timeout has elapsed, as described in {@link this#parseAndSend(String, long, TimeUnit)}.
+	 * 
+	 * @throws TimeoutException if the script was not evaluated within the timeout.
+	 */
+	public Object evalAndWrap(String script, Class requestedInterface, long timeout, TimeUnit unit)
+	              throws XTypeMismatch, XIllegalOperation, TimeoutException {
+		if(ATObject.class.isAssignableFrom(requestedInterface))
+			throw new XIllegalOperation("Cannot wrap a value returned to a pure Java thread as an ATObject derivative: " +
+					"this incurs a possible violation of the event-loop concurrency properties");
+		
+		return Coercer.coerce(parseAndSend(script, timeout, unit), requestedInterface, evaluator_.getExecutor());
+	}
+	
 	/**
 	 * Auxiliary function which reads an AmbientTalk file and treats it as a script to evaluate.
 	 */
@@ -254,6 +828,343 @@ public abstract class EmbeddableAmbientTalk {
 		}
 	}
 	
+	// EVALUATION WITH BINDINGS
+	
+	/**
+	 * Evaluates an AmbientTalk script in a fresh scope in which the given bindings are defined as
+	 * variables, nested in the global scope of the evaluator actor. This allows passing Java data to a
+	 * script without splicing it into the script's source: as the source remains constant, it is only
+	 * parsed once (see {@link this#parseCached(String)}) regardless of the values that are bound.
+	 * Definitions made by the script itself are local to the fresh scope.
+	 * <p>
+	 * Binding values are converted inside the evaluator actor as follows:
+	 * <ul>
+	 *  <li>AmbientTalk objects are bound as is, <tt>null</tt> is bound to <tt>nil</tt>.
+	 *  <li>Strings, booleans and numbers are converted into their native AmbientTalk counterparts. Longs
+	 *  outside the range of an int are converted into fractions, which represent them exactly up to
+	 *  2^53 in magnitude; larger longs are rejected. {@link #evalToLong(String)} converts such fractions back.
+	 *  <li>A {@link ByteBuffer} is wrapped in a {@link NATByteBufferView} without copying its content,
+	 *  hence the buffer should not be modified while the script may still access it.
+	 *  <li>Arrays of primitive numbers and object arrays are converted into tables. As a table holds
+	 *  AmbientTalk objects, their elements are necessarily copied, but no symbiotic wrapper is created.
+	 *  <li>Other objects are converted using {@link Symbiosis#javaToAmbientTalk(Object)}.
+	 * </ul>
+	 * Contrary to {@link this#parseAndSend(String)}, errors are raised rather than being passed to the
+	 * error handling template methods.
+	 * 
+	 * @param script a string containing the AmbientTalk code to be executed.
+	 * @param bindings maps variable names to the Java values they are bound to.
+	 * @return the value of the script.
+	 * @throws XParseError if the script could not be parsed.
+	 * @throws InterpreterException if a binding could not be converted or evaluating the script raised an exception.
+	 */
+	public ATObject eval(String script, final Map<String, Object> bindings) throws InterpreterException {
+		final ATAbstractGrammar ast = parseCached(script);
+		try {
+			return sync_performTask(new Callable<ATObject>() {
+				public ATObject call() throws Exception {
+					NATObject globalScope = Evaluator.getGlobalLexicalScope();
+					NATCallframe scope = new NATCallframe(globalScope);
+					for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+						scope.meta_defineField(AGSymbol.jAlloc(binding.getKey()), javaToAmbientTalk(binding.getValue()));
+					}
+					return ast.meta_eval(new NATContext(scope, globalScope));
+				}
+			});
+		} catch (InterpreterException e) {
+			throw e;
+		} catch (RejectedExecutionException e) {
+			throw e;
+		} catch (Exception e) {
+			abort("Unexpected exception: " + e.getMessage(), e);
+			throw new XIllegalOperation("Unexpected exception: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Parses the given script, reusing the parse tree of a recent identical script if possible. Parse
+	 * trees are immutable, hence sharing them between evaluations is safe.
+	 */
+	protected ATAbstractGrammar parseCached(String script) throws XParseError {
+		synchronized (parseCache_) {
+			ATAbstractGrammar ast = parseCache_.get(script);
+			if (ast != null) {
+				return ast;
+			}
+		}
+		ATAbstractGrammar ast = IATEvents.parse(scriptSource_, script);
+		synchronized (parseCache_) {
+			parseCache_.put(script, ast);
+		}
+		return ast;
+	}
+	
+	/**
+	 * Converts the value of a binding, as described in {@link this#eval(String, Map)}. Should be
+	 * called by the evaluator actor.
+	 */
+	private static ATObject javaToAmbientTalk(Object value) throws InterpreterException {
+		if (value == null) {
+			return Evaluator.getNil();
+		} else if (value instanceof ATObject) {
+			return (ATObject) value;
+		} else if (value instanceof String) {
+			return NATText.atValue((String) value);
+		} else if (value instanceof Boolean) {
+			return NATBoolean.atValue(((Boolean) value).booleanValue());
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return NATNumber.atValue(((Number) value).intValue());
+		} else if (value instanceof Long) {
+			return number(((Long) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			return NATFraction.atValue(((Number) value).doubleValue());
+		} else if (value instanceof ByteBuffer) {
+			return new NATByteBufferView((ByteBuffer) value);
+		} else if (value instanceof int[]) {
+			int[] array = (int[]) value;
+			ATObject[] elements = new ATObject[array.length];
+			for (int i = 0; i < array.length; i++) {
+				elements[i] = NATNumber.atValue(array[i]);
+			}
+			return NATTable.atValue(elements);
+		} else if (value instanceof long[]) {
+			long[] array = (long[]) value;
+			ATObject[] elements = new ATObject[array.length];
+			for (int i = 0; i < array.length; i++) {
+				elements[i] = number(array[i]);
+			}
+			return NATTable.atValue(elements);
+		} else if (value instanceof double[]) {
+			double[] array = (double[]) value;
+			ATObject[] elements = new ATObject[array.length];
+			for (int i = 0; i < array.length; i++) {
+				elements[i] = NATFraction.atValue(array[i]);
+			}
+			return NATTable.atValue(elements);
+		} else if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			ATObject[] elements = new ATObject[array.length];
+			for (int i = 0; i < array.length; i++) {
+				elements[i] = javaToAmbientTalk(array[i]);
+			}
+			return NATTable.atValue(elements);
+		} else {
+			return Symbiosis.javaToAmbientTalk(value);
+		}
+	}
+	
+	/** the largest magnitude up to which every long can be represented exactly by a fraction */
+	private static final long _MAX_EXACT_FRACTION_ = 1L << 53;
+	
+	/**
+	 * @return a native number if the value fits in one, otherwise a fraction which represents it exactly.
+	 * @throws XIllegalArgument if the value cannot be represented exactly.
+	 */
+	private static ATObject number(long value) throws XIllegalArgument {
+		if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			return NATNumber.atValue((int) value);
+		}
+		if (value < -_MAX_EXACT_FRACTION_ || value > _MAX_EXACT_FRACTION_) {
+			throw new XIllegalArgument("cannot represent " + value + " exactly as an AmbientTalk number");
+		}
+		return NATFraction.atValue(value);
+	}
+	
+	// TYPED RESULT EXTRACTION
+	// The following methods evaluate a script and convert its native result into a Java value
+	// from within the evaluator actor. Contrary to evalAndWrap, no coercer proxy is created and the
+	// result is not printed into a String and parsed back. Errors are raised rather than being passed
+	// to the error handling template methods.
+	
+	/**
+	 * Converts the result of a script into a Java value, from within the evaluator actor.
+	 */
+	private interface Extractor<T> {
+		public T extract(ATObject value) throws InterpreterException;
+	}
+	
+	private static final Extractor<Long> _LONG_ = new Extractor<Long>() {
+		public Long extract(ATObject value) throws InterpreterException {
+			return Long.valueOf(longValue(value));
+		}
+	};
+	
+	private static final Extractor<Double> _DOUBLE_ = new Extractor<Double>() {
+		public Double extract(ATObject value) throws InterpreterException {
+			return Double.valueOf(doubleValue(value));
+		}
+	};
+	
+	private static final Extractor<String> _STRING_ = new Extractor<String>() {
+		public String extract(ATObject value) throws InterpreterException {
+			return stringValue(value);
+		}
+	};
+	
+	private static final Extractor<Boolean> _BOOLEAN_ = new Extractor<Boolean>() {
+		public Boolean extract(ATObject value) throws InterpreterException {
+			if (value instanceof NATBoolean) {
+				return Boolean.valueOf(((NATBoolean) value).javaValue);
+			}
+			throw new XTypeMismatch(NATBoolean.class, value);
+		}
+	};
+	
+	private static final Extractor<long[]> _LONG_ARRAY_ = new Extractor<long[]>() {
+		public long[] extract(ATObject value) throws InterpreterException {
+			ATObject[] elements = tableElements(value);
+			long[] result = new long[elements.length];
+			for (int i = 0; i < elements.length; i++) {
+				result[i] = longValue(elements[i]);
+			}
+			return result;
+		}
+	};
+	
+	private static final Extractor<double[]> _DOUBLE_ARRAY_ = new Extractor<double[]>() {
+		public double[] extract(ATObject value) throws InterpreterException {
+			ATObject[] elements = tableElements(value);
+			double[] result = new double[elements.length];
+			for (int i = 0; i < elements.length; i++) {
+				result[i] = doubleValue(elements[i]);
+			}
+			return result;
+		}
+	};
+	
+	private static final Extractor<List<String>> _STRING_LIST_ = new Extractor<List<String>>() {
+		public List<String> extract(ATObject value) throws InterpreterException {
+			ATObject[] elements = tableElements(value);
+			List<String> result = new ArrayList<String>(elements.length);
+			for (int i = 0; i < elements.length; i++) {
+				result.add(stringValue(elements[i]));
+			}
+			return result;
+		}
+	};
+	
+	/**
+	 * Accepts numbers, and fractions which exactly represent an integral value such as the ones
+	 * created by {@link #number(long)}.
+	 */
+	private static long longValue(ATObject value) throws XTypeMismatch {
+		if (value instanceof NATNumber) {
+			return ((NATNumber) value).javaValue;
+		}
+		if (value instanceof NATFraction) {
+			double fraction = ((NATFraction) value).javaValue;
+			if (fraction == Math.rint(fraction) && Math.abs(fraction) <= _MAX_EXACT_FRACTION_) {
+				return (long) fraction;
+			}
+		}
+		throw new XTypeMismatch(NATNumber.class, value);
+	}
+	
+	private static double doubleValue(ATObject value) throws XTypeMismatch {
+		if (value instanceof NATFraction) {
+			return ((NATFraction) value).javaValue;
+		}
+		return longValue(value);
+	}
+	
+	private static String stringValue(ATObject value) throws XTypeMismatch {
+		if (value instanceof NATText) {
+			return ((NATText) value).javaValue;
+		}
+		throw new XTypeMismatch(NATText.class, value);
+	}
+	
+	private static ATObject[] tableElements(ATObject value) throws XTypeMismatch {
+		if (value instanceof NATTable) {
+			return ((NATTable) value).elements_;
+		}
+		throw new XTypeMismatch(NATTable.class, value);
+	}
+	
+	/**
+	 * Evaluates the script and converts its result using the given extractor, within a single
+	 * task of the evaluator actor.
+	 * 
+	 * @throws XParseError if the script could not be parsed.
+	 * @throws XTypeMismatch if the result of the script cannot be converted by the extractor.
+	 * @throws InterpreterException if evaluating the script raised an exception.
+	 */
+	private <T> T evalAndExtract(String script, final Extractor<T> extractor) throws InterpreterException {
+		final ATAbstractGrammar ast = parseCached(script);
+		try {
+			return sync_performTask(new Callable<T>() {
+				public T call() throws Exception {
+					return extractor.extract(evalInCurrentActor(ast));
+				}
+			});
+		} catch (InterpreterException e) {
+			throw e;
+		} catch (RejectedExecutionException e) {
+			throw e;
+		} catch (Exception e) {
+			abort("Unexpected exception: " + e.getMessage(), e);
+			throw new XIllegalOperation("Unexpected exception: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Evaluates an AmbientTalk script which should return a number, or a fraction with an integral value
+	 * (such as a long bound by {@link #eval(String, Map)} that does not fit in a number).
+	 * @throws XTypeMismatch if the script does not return a number or such a fraction.
+	 */
+	public long evalToLong(String script) throws InterpreterException {
+		return evalAndExtract(script, _LONG_).longValue();
+	}
+	
+	/**
+	 * Evaluates an AmbientTalk script which should return a number or a fraction.
+	 * @throws XTypeMismatch if the script does not return a number or a fraction.
+	 */
+	public double evalToDouble(String script) throws InterpreterException {
+		return evalAndExtract(script, _DOUBLE_).doubleValue();
+	}
+	
+	/**
+	 * Evaluates an AmbientTalk script which should return a text. Note that, contrary to
+	 * {@link this#parseSendAndPrint(String)}, other values are not printed but rejected.
+	 * @throws XTypeMismatch if the script does not return a text.
+	 */
+	public String evalToString(String script) throws InterpreterException {
+		return evalAndExtract(script, _STRING_);
+	}
+	
+	/**
+	 * Evaluates an AmbientTalk script which should return a boolean.
+	 * @throws XTypeMismatch if the script does not return a boolean.
+	 */
+	public boolean evalToBoolean(String script) throws InterpreterException {
+		return evalAndExtract(script, _BOOLEAN_).booleanValue();
+	}
+	
+	/**
+	 * Evaluates an AmbientTalk script which should return a table of numbers.
+	 * @throws XTypeMismatch if the script does not return a table, or if the table contains other values.
+	 */
+	public long[] evalToLongArray(String script) throws InterpreterException {
+		return evalAndExtract(script, _LONG_ARRAY_);
+	}
+	
+	/**
+	 * Evaluates an AmbientTalk script which should return a table of numbers and/or fractions.
+	 * @throws XTypeMismatch if the script does not return a table, or if the table contains other values.
+	 */
+	public double[] evalToDoubleArray(String script) throws InterpreterException {
+		return evalAndExtract(script, _DOUBLE_ARRAY_);
+	}
+	
+	/**
+	 * Evaluates an AmbientTalk script which should return a table of texts.
+	 * @throws XTypeMismatch if the script does not return a table, or if the table contains other values.
+	 */
+	public List<String> evalToStringList(String script) throws InterpreterException {
+		return evalAndExtract(script, _STRING_LIST_);
+	}
+	
 	// SHARED ACTOR FIELD Constructors
 	// The following constructors serve to create some of the default fields which are to be
 	// installed in every actor, applications can use the default implementation or specialize
@@ -279,6 +1190,8 @@ public abstract class EmbeddableAmbientTalk {
 	 * 
 	 * and uses the listing to initialize the lobby of the actors.
 	 * </pre>
+	 * A path may denote either a directory or a jar or zip archive (e.g. <tt>name=lib.jar</tt>), whose
+	 * modules are then loaded from the archive itself.
 	 * 
 	 * @return a {@link SAFLobby} actor field which can be passed when initializing a virtual machine so that
 	 * every new actor is equipped with a lobby object.
@@ -287,9 +1200,19 @@ public abstract class EmbeddableAmbientTalk {
 	 * 
 	 */
 	public SharedActorField computeObjectPath(String objectPath) {
+		return new SAFLobby(parseObjectPath(objectPath));
+	}
+	
+	/**
+	 * Validates the entries of the object path, as explained in {@link #computeObjectPath(String)}.
+	 * 
+	 * @return a list whose entries are arrays [ name:String, path:File ], from which a {@link SAFLobby}
+	 * can be created.
+	 */
+	protected LinkedList<Object[]> parseObjectPath(String objectPath) {
 		// split the object path using ':' (on *nix) or ';' (on windows)
 		String[] roots = objectPath.split(pathSeparatorRegExp);
-		LinkedList namedPaths = new LinkedList();
+		LinkedList<Object[]> namedPaths = new LinkedList<Object[]>();
 		
 		// This code works similar to IAT#computeLogProperties to extract the key=value pairs.
 		// We need to update both codes if changes required.
@@ -309,9 +1232,9 @@ public abstract class EmbeddableAmbientTalk {
 			String name = pair[0];
 			File pathfile = new File(pair[1]);
 			
-			// check whether the given pathfile is a directory
-			if (!pathfile.isDirectory()) {
-			    abort("Error: non-directory file on objectpath: " + pathfile.getAbsolutePath(), null);
+			// check whether the given pathfile is a directory or an archive
+			if (!pathfile.isDirectory() && !ArchiveIndex.isArchive(pathfile)) {
+			    abort("Error: file on objectpath is neither a directory nor a jar or zip archive: " + pathfile.getAbsolutePath(), null);
 			}
 			
 			if (!pathfile.isAbsolute()) {
@@ -325,7 +1248,7 @@ public abstract class EmbeddableAmbientTalk {
 			namedPaths.add(new Object[] { name, pathfile });
 		}
 		
-		return new SAFLobby(namedPaths);
+		return namedPaths;
 	}
 	
 	/**
@@ -0,0 +1,262 @@
+/**
+ * AmbientTalk/2 Project
+ * ExceptionAggregator.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.util.logging.Logging;
+
+/**
+ * An ExceptionAggregator decides how much of the exceptions reported to the shell is printed.
+ * Exceptions are grouped by a fingerprint consisting of their type and the topmost frames of
+ * their AmbientTalk stack trace; their message is not part of it, such that exceptions which only
+ * differ in the values they mention are grouped together. The first occurrence of a fingerprint
+ * should be reported in full; later occurrences are not reported individually, a summary of their
+ * count is requested at most once per summary interval instead.
+ * <p>
+ * Counts which were not yet summarized when no further occurrences follow can be collected with
+ * {@link #drainUnreported()}. The aggregated counts remain available through {@link #getCounts()}.
+ * The number of distinct fingerprints that is remembered is bounded, the least recently seen ones
+ * are forgotten first.
+ */
+public final class ExceptionAggregator {
+
+	/** returned by {@link #record(Throwable)} if the exception should be reported in full */
+	public static final long _FIRST_OCCURRENCE_ = 0;
+	/** returned by {@link #record(Throwable)} if the exception should not be reported */
+	public static final long _SUPPRESSED_ = -1;
+
+	private static final int _MAX_FINGERPRINTS_ = 1024;
+
+	private static final class Occurrences {
+		long total_ = 0;
+		long unreported_ = 0;
+		long lastReport_;
+	}
+
+	private final int topFrames_;
+	private final long summaryInterval_;
+	private final LinkedHashMap<String, Occurrences> occurrences_ =
+		new LinkedHashMap<String, Occurrences>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Occurrences> eldest) {
+				return size() > _MAX_FINGERPRINTS_;
+			}
+		};
+
+	/**
+	 * @param topFrames the number of stack trace lines which are part of an exception's fingerprint
+	 * @param summaryInterval the minimum number of milliseconds between two summaries of the same fingerprint
+	 */
+	public ExceptionAggregator(int topFrames, long summaryInterval) {
+		topFrames_ = topFrames;
+		summaryInterval_ = summaryInterval;
+	}
+
+	/**
+	 * Registers an occurrence of the given exception.
+	 * @return {@link #_FIRST_OCCURRENCE_} if the exception's fingerprint was not seen before,
+	 * {@link #_SUPPRESSED_} if it should not be reported, or otherwise the number
+	 * of occurrences (including this one) since the fingerprint was last summarized.
+	 */
+	public long record(Throwable exception) {
+		return record(exception, System.currentTimeMillis());
+	}
+
+	/**
+	 * Registers an occurrence of the given exception at the given time (in milliseconds).
+	 * @see #record(Throwable)
+	 */
+	public synchronized long record(Throwable exception, long now) {
+		String fingerprint = fingerprint(exception);
+		Occurrences occurrences = occurrences_.get(fingerprint);
+		if (occurrences == null) {
+			occurrences = new Occurrences();
+			occurrences.total_ = 1;
+			occurrences.lastReport_ = now;
+			occurrences_.put(fingerprint, occurrences);
+			return _FIRST_OCCURRENCE_;
+		}
+		occurrences.total_++;
+		occurrences.unreported_++;
+		if (now - occurrences.lastReport_ < summaryInterval_) {
+			return _SUPPRESSED_;
+		}
+		long unreported = occurrences.unreported_;
+		occurrences.unreported_ = 0;
+		occurrences.lastReport_ = now;
+		return unreported;
+	}
+
+	/**
+	 * Collects the occurrences which were not yet summarized, and whose fingerprint was last
+	 * summarized at least one summary interval before the given time (in milliseconds).
+	 * @return a map from fingerprint to the number of occurrences since it was last summarized
+	 */
+	public synchronized Map<String, Long> drainUnreported(long now) {
+		Map<String, Long> unreported = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Occurrences> entry : occurrences_.entrySet()) {
+			Occurrences occurrences = entry.getValue();
+			if (occurrences.unreported_ > 0 && now - occurrences.lastReport_ >= summaryInterval_) {
+				unreported.put(entry.getKey(), Long.valueOf(occurrences.unreported_));
+				occurrences.unreported_ = 0;
+				occurrences.lastReport_ = now;
+			}
+		}
+		return unreported;
+	}
+
+	/**
+	 * Collects all occurrences which were not yet summarized, regardless of the summary interval.
+	 * @see #drainUnreported(long)
+	 */
+	public Map<String, Long> drainUnreported() {
+		return drainUnreported(Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return a snapshot mapping each known fingerprint to the total number of times it occurred
+	 */
+	public synchronized Map<String, Long> getCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Occurrences> entry : occurrences_.entrySet()) {
+			counts.put(entry.getKey(), Long.valueOf(entry.getValue().total_));
+		}
+		return counts;
+	}
+
+	/**
+	 * Forgets all fingerprints, such that the next occurrence of any exception is reported in full.
+	 */
+	public synchronized void clear() {
+		occurrences_.clear();
+	}
+
+	/**
+	 * @return the type of the exception on the first line, followed by the topmost lines of its
+	 * AmbientTalk stack trace. Exceptions raised by the Java code of the shell itself have no
+	 * AmbientTalk stack trace, their topmost Java stack frames are used instead. Only the topmost
+	 * lines of the AmbientTalk stack trace are rendered, deep traces are not printed in full.
+	 */
+	public String fingerprint(Throwable exception) {
+		StringBuffer fingerprint = new StringBuffer(exception.getClass().getName());
+		if (topFrames_ <= 0) {
+			return fingerprint.toString();
+		}
+		if (exception instanceof InterpreterException) {
+			TopLines lines = new TopLines(topFrames_);
+			try {
+				((InterpreterException) exception).printAmbientTalkStackTrace(new PrintStream(lines));
+			} catch (TopLines.Enough enough) {
+				// the remaining frames are not part of the fingerprint
+			}
+			if (lines.size() > 0) {
+				fingerprint.append('\n').append(lines.toString());
+			}
+		} else {
+			StackTraceElement[] frames = exception.getStackTrace();
+			for (int i = 0; i < frames.length && i < topFrames_; i++) {
+				fingerprint.append("\nat ").append(frames[i]);
+			}
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * @return a one-line description of the exceptions with the given fingerprint: their type
+	 * followed by their topmost stack frame, if any
+	 */
+	public static String describe(String fingerprint) {
+		String[] lines = fingerprint.split("\n", 3);
+		return lines.length < 2 ? lines[0] : lines[0] + " " + lines[1].trim();
+	}
+
+	/**
+	 * @return the AmbientTalk stack trace of the exception, or null if it cannot be printed
+	 */
+	public static String ambientTalkStackTrace(InterpreterException e) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(baos);
+		e.printAmbientTalkStackTrace(ps);
+		try {
+			return baos.toString("UTF8");
+		} catch (UnsupportedEncodingException e1) {
+			Logging.Actor_LOG.error("unnable to print exception from handleATException");
+			return null;
+		}
+	}
+
+	/**
+	 * Collects the first lines written to it, and aborts the printing once enough lines were seen.
+	 */
+	private static final class TopLines extends OutputStream {
+
+		/** thrown to stop printing, preallocated since it carries no stack trace */
+		static final class Enough extends RuntimeException {
+			private static final long serialVersionUID = 1L;
+			public Throwable fillInStackTrace() {
+				return this;
+			}
+		}
+
+		private static final Enough _ENOUGH_ = new Enough();
+
+		private final ByteArrayOutputStream lines_ = new ByteArrayOutputStream();
+		private final int maxLines_;
+		private int seenLines_ = 0;
+
+		TopLines(int maxLines) {
+			maxLines_ = maxLines;
+		}
+
+		public void write(int b) {
+			if (b == '\n' && ++seenLines_ >= maxLines_) {
+				throw _ENOUGH_;
+			}
+			lines_.write(b);
+		}
+
+		int size() {
+			return lines_.size();
+		}
+
+		public String toString() {
+			try {
+				return lines_.toString("UTF8");
+			} catch (UnsupportedEncodingException e) {
+				return lines_.toString();
+			}
+		}
+	}
+
+}
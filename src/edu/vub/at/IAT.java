@@ -28,14 +28,35 @@
 package edu.vub.at;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.vub.at.actors.eventloops.Event;
 import edu.vub.at.actors.eventloops.EventLoop;
@@ -49,15 +70,18 @@ import edu.vub.at.exceptions.XParseError;
 import edu.vub.at.objects.ATAbstractGrammar;
 import edu.vub.at.objects.ATClosure;
 import edu.vub.at.objects.ATObject;
+import edu.vub.at.objects.grammar.ATBegin;
+import edu.vub.at.objects.natives.NATCallframe;
+import edu.vub.at.objects.natives.NATContext;
+import edu.vub.at.objects.natives.NATObject;
 import edu.vub.at.objects.natives.NATTable;
+import edu.vub.at.objects.natives.LobbyWatcher;
 import edu.vub.at.objects.natives.NATText;
+import edu.vub.at.objects.natives.SAFLobby;
 import edu.vub.at.objects.natives.SAFSystem;
 import edu.vub.at.objects.natives.SAFWorkingDirectory;
-import edu.vub.at.parser.NATParser;
 import edu.vub.at.util.logging.Logger;
 import edu.vub.at.util.logging.Logging;
-import gnu.getopt.Getopt;
-import gnu.getopt.LongOpt;
 
 /**
  * IAT is the main entry point for the 'iat' Interactive AmbientTalk shell.
@@ -77,6 +101,14 @@ import gnu.getopt.LongOpt;
  * -h, --help display help, then quit
  * -v, --version display version information, then quit
  * -q, --quiet quiet mode - don't print welcome message or any prompts
+ * --Xcluster n: boots n virtual machines in this JVM, connected over the loopback interface
+ * --framed: exchanges length-prefixed JSON frames with a tool instead of lines of text, see IATIOFramed
+ * --watch: reloads modules on the objectpath when they change (see also the :reload command)
+ * --pipeline: evaluates REPL input asynchronously, such that a slow evaluation does not block the prompt
+ * --record file: records the lines read by the shell and the output they cause in a SessionLog
+ * --replay file: re-drives a recorded session and reports the latency and output differences of every line
+ * --bench: benchmarks the main file (or the closures named by --benchfn) instead of entering the REPL,
+ *  see {@link #runBenchmarks()} for the related --warmup, --iterations, --forks and --json options
  * 
  * Program arguments:
  * an optional filename and optional arguments to the script
@@ -102,10 +134,62 @@ public class IAT extends EmbeddableAmbientTalk {
 	private static final String _ENV_AT_CURNS_ ="AT_CURNS";
 	
 	protected static final Properties _IAT_PROPS_ = new Properties();
-	private static String _INPUT_PROMPT_;
-	protected static String _OUTPUT_PROMPT_;
-	public static String _READ_PROMPT_;	
-	public static String _CONTINUATION_PROMPT_;
+	
+	/**
+	 * Parsed init files, shared read-only by all shells hosted in this JVM. Maps the canonical path of
+	 * an init file (prefixed with 'debug:' in debug mode) to an array [ lastModified:Long, ast:ATAbstractGrammar ].
+	 */
+	private static final Map<String, Object[]> _INIT_ASTS_ = new HashMap<String, Object[]>();
+	
+	/**
+	 * Validated objectpath entries, shared read-only by all shells hosted in this JVM and indexed by their
+	 * objectpath. Only the entries are shared: every shell has a lobby field (and module watcher) of its own.
+	 */
+	private static final Map<String, List<Object[]>> _OBJECTPATHS_ = new HashMap<String, List<Object[]>>();
+	
+	/*
+	 * The prompts and command-line arguments used to be static fields of IAT. They remain available for
+	 * code that still reads them: they hold the default values of an IATConfiguration until a shell is
+	 * created, and the configuration of the most recently created shell afterwards. Shells themselves
+	 * only read their own configuration, so when several shells are hosted in one JVM these fields
+	 * describe only one of them.
+	 */
+	/** @deprecated use {@link IATConfiguration#outputPrompt} */
+	@Deprecated protected static String _OUTPUT_PROMPT_;
+	/** @deprecated use {@link IATConfiguration#readPrompt} */
+	@Deprecated public static String _READ_PROMPT_;
+	/** @deprecated use {@link IATConfiguration#continuationPrompt} */
+	@Deprecated public static String _CONTINUATION_PROMPT_;
+	/** @deprecated use {@link IATConfiguration#file} */
+	@Deprecated public static String _FILE_ARG_;
+	/** @deprecated use {@link IATConfiguration#arguments} */
+	@Deprecated public static String[] _ARGUMENTS_ARG_;
+	/** @deprecated use {@link IATConfiguration#init} */
+	@Deprecated public static String _INIT_ARG_;
+	/** @deprecated use {@link IATConfiguration#objectPath} */
+	@Deprecated public static String _OBJECTPATH_ARG_;
+	/** @deprecated use {@link IATConfiguration#eval} */
+	@Deprecated public static String _EVAL_ARG_;
+	/** @deprecated use {@link IATConfiguration#networkName} */
+	@Deprecated public static String _NETWORK_NAME_ARG_;
+	/** @deprecated use {@link IATConfiguration#ipAddress} */
+	@Deprecated public static String _IP_ADDRESS_ARG_;
+	/** @deprecated use {@link IATConfiguration#logLevel} */
+	@Deprecated public static String _LOG_LEVEL_ARG_;
+	/** @deprecated use {@link IATConfiguration#print} */
+	@Deprecated public static boolean _PRINT_ARG_;
+	/** @deprecated use {@link IATConfiguration#help} */
+	@Deprecated public static boolean _HELP_ARG_;
+	/** @deprecated use {@link IATConfiguration#version} */
+	@Deprecated public static boolean _VERSION_ARG_;
+	/** @deprecated use {@link IATConfiguration#quiet} */
+	@Deprecated public static boolean _QUIET_ARG_;
+	/** @deprecated use {@link IATConfiguration#noJline} */
+	@Deprecated public static boolean _NO_JLINE_ARG_;
+	/** @deprecated use {@link IATConfiguration#debug} */
+	@Deprecated public static boolean _DEBUG_ARG_;
+	/** @deprecated use {@link IATConfiguration#cluster} */
+	@Deprecated public static int _CLUSTER_ARG_;
 
 	/**
 	 * The read-eval-print loop is modelled as an event loop with
@@ -119,6 +203,11 @@ public class IAT extends EmbeddableAmbientTalk {
 	 */
 	public class ReadEvalPrintLoop extends EventLoop {
 		private IATIO iatio_;
+		/**
+		 * with --pipeline, the readNextLine:catch: requests of jobs, served by the next lines read by the REPL:
+		 * the REPL is already reading the next input while the jobs run, so their requests cannot wait in its event queue
+		 */
+		private final ConcurrentLinkedQueue<LineRequest> pendingReads_ = new ConcurrentLinkedQueue<LineRequest>();
 		
 		public ReadEvalPrintLoop(IATIO iatio) {
 			super("The Read-Eval-Print Loop");
@@ -131,20 +220,38 @@ public class IAT extends EmbeddableAmbientTalk {
 		
 		protected void execute() {
 			// if Idle, perform a Read-Eval-Print cycle
-			if (eventQueue_.isEmpty()) {
+			// in framed mode, input is only read on behalf of readNextLine:catch: events
+			if (eventQueue_.isEmpty() && !(iatio_ instanceof IATIOFramed)) {
 				try {
-					String input = readFromConsole();
+					String input = pendingReads_.isEmpty() ? readFromConsole() : iatio_.readln(config_.readPrompt);
+					LineRequest request = pendingReads_.poll();
+					if (request != null) {
+						request.deliver(input);
+						return;
+					}
 					if (input == null) {
 						this.stopProcessing();
 						return;
 					} else if (input.trim().isEmpty()) {
 						// ignore empty input strings
 					} else if (input.startsWith(":")) {
-						processShellCommand(input.substring(1));
+						IATEvents.ReplInput event = new IATEvents.ReplInput();
+						event.begin();
+						try {
+							processShellCommand(input.substring(1));
+						} finally {
+							event.end("command", input, evaluator_);
+						}
 					} else {
 						if (countBalanced(input) <= 0) {
 							// no outstanding opening braces, input is just one line
-							evalAndPrint(input);
+							IATEvents.ReplInput event = new IATEvents.ReplInput();
+							event.begin();
+							try {
+								evalInput(input);
+							} finally {
+								event.end("eval", input, evaluator_);
+							}
 						} else {
 							// there are outstanding opening braces, emit continuation lines
 							StringBuffer multilineInput = new StringBuffer(input).append("\n");
@@ -159,10 +266,20 @@ public class IAT extends EmbeddableAmbientTalk {
 								// or until the user explicitly inputs an empty line
 							} while (diff != 0 && !input.isEmpty());
 							// finally, evaluate the multi-line input
-							evalAndPrint(multilineInput.toString());
+							IATEvents.ReplInput event = new IATEvents.ReplInput();
+							event.begin();
+							try {
+								evalInput(multilineInput.toString());
+							} finally {
+								event.end("multiline", multilineInput.toString(), evaluator_);
+							}
 						}
 					}
 				} catch (IOException e) {
+					LineRequest request;
+					while ((request = pendingReads_.poll()) != null) {
+						request.fail(e);
+					}
 					abort("Error reading input: "+e.getMessage(), e);
 				}
 
@@ -173,27 +290,26 @@ public class IAT extends EmbeddableAmbientTalk {
 		}
 		
 		public void event_readLine(final ELActor owner, final ATClosure success, final ATClosure failure) {
+		  final LineRequest request = new LineRequest(owner, success, failure);
+		  if (config_.pipeline && !(iatio_ instanceof IATIOFramed)) {
+			  pendingReads_.offer(request);
+			  return;
+		  }
 		  receive(new Event() {
 			public void process(Object eventloop) {
 				try{
 						 // blocking input
-						String line = null;
-						line = iatio_.readln(IAT._READ_PROMPT_);
-				         if (line != null)
-				            // success<-apply([c])
-							Evaluator.trigger(owner, success, NATTable.of(NATText.atValue(line)), "readNextLine:");
-				         else
-				        	Evaluator.trigger(owner, success, NATTable.of(Evaluator.getNil()),"readNextLine:");
+						request.deliver(iatio_.readln(config_.readPrompt));
 					} catch (IOException e) {
-						Evaluator.trigger(owner, failure, NATTable.of(new XIOProblem(e).getAmbientTalkRepresentation()),"readNextLine:");
+						request.fail(e);
 					}
 			}
 		  });
 	    }
 		
 		private String readFromConsole() throws IOException{
-			if (!IAT._QUIET_ARG_) {
-				return iatio_.readln(_INPUT_PROMPT_);
+			if (!config_.quiet) {
+				return iatio_.readln(config_.inputPrompt);
 			} else {
 				return iatio_.readln();
 			}
@@ -207,18 +323,71 @@ public class IAT extends EmbeddableAmbientTalk {
 		 * the number of spaces printed is specified by the diff parameter
 		 */
 		private String readContinuationLine(int diff) throws IOException{
-			if (!IAT._QUIET_ARG_ && !IAT._NO_JLINE_ARG_) {
+			if (!config_.quiet && !config_.noJline) {
 				char[] spaces = new char[diff];
 				Arrays.fill(spaces, ' ');
-				return iatio_.readln(_CONTINUATION_PROMPT_ + new String(spaces));
+				return iatio_.readln(config_.continuationPrompt + new String(spaces));
 			} else {
 				return iatio_.readln();
 			}
 		}
 	}
 	
-	public ReadEvalPrintLoop repl_;
+	/**
+	 * A readNextLine:catch: request of an actor, answered by applying one of its closures in that actor.
+	 */
+	private static final class LineRequest {
+		private final ELActor owner_;
+		private final ATClosure success_;
+		private final ATClosure failure_;
+		
+		LineRequest(ELActor owner, ATClosure success, ATClosure failure) {
+			owner_ = owner;
+			success_ = success;
+			failure_ = failure;
+		}
+		
+		/** @param line the line that was read, or null at the end of the input */
+		void deliver(String line) {
+			// success<-apply([line])
+			IATEvents.trigger(owner_, success_, NATTable.of(line == null ? Evaluator.getNil() : NATText.atValue(line)), "readNextLine:");
+		}
+		
+		void fail(IOException e) {
+			IATEvents.trigger(owner_, failure_, NATTable.of(new XIOProblem(e).getAmbientTalkRepresentation()), "readNextLine:");
+		}
+	}
+	
+	/** created on first use, as one-shot runs (-p) do not read from the console */
+	public volatile ReadEvalPrintLoop repl_;
 	public IATIO iatio_;
+	protected final IATConfiguration config_;
+	protected StreamingResultPrinter printer_;
+	protected AmbientTalkCluster cluster_;
+	/** prints the values posted to the cluster by :on, which are printed by the actors of other nodes */
+	private StreamingResultPrinter clusterPrinter_;
+	protected SharedActorField lobby_;
+	/** with --replay, the i/o that re-drives the recorded session and the console on which it is reported */
+	private IATIOReplay replay_;
+	private IATIO replayConsole_;
+	/** the init file of this shell, next to which initDebugger.at resides */
+	private File initFile_;
+	/** the actors to which a debugger was attached using {@link #attachDebugger()} */
+	private final Map<ELActor, Boolean> debuggedActors_ = Collections.synchronizedMap(new WeakHashMap<ELActor, Boolean>());
+	/** with --pipeline, the evaluations submitted by the REPL which have not completed yet */
+	private final Map<Integer, Job> jobs_ = Collections.synchronizedMap(new LinkedHashMap<Integer, Job>());
+	private final AtomicInteger jobSequence_ = new AtomicInteger();
+	/** the steps of the boot sequence that run in parallel, see {@link BootStep} */
+	private BootStep<IATIO> consoleStep_;
+	private BootStep<ATAbstractGrammar> initStep_;
+	private BootStep<SharedActorField[]> pathsStep_;
+	/** the actors of this shell, whose memory usage is reported by :heap */
+	protected final ActorRegistry actors_ = new ActorRegistry(
+			intProperty("heapwalkbudget", 1000000),
+			intProperty("heapsamplesize", 256));
+	protected final ExceptionAggregator exceptions_ = new ExceptionAggregator(
+			intProperty("exceptionframes", 5),
+			intProperty("exceptionsummaryinterval", 5000));
 
 	/**
 	 * Performs the main boot sequence of iat and the AmbientTalk VM.
@@ -227,6 +396,9 @@ public class IAT extends EmbeddableAmbientTalk {
 	 *  II) initialize the i/o (jline or default depending on -nojline flag).
 	 * III) check for simple -help or -version arguments
 	 * 
+	 * The i/o is initialized while the init file is parsed and the objectpath is validated,
+	 * as these steps are independent of one another (see {@link BootStep}).
+	 * 
 	 * IV) Boot sequence:
 	 * 1) initialize the lobby using the object path (-o or default)
 	 * 2) add system object to the global lexical scope
@@ -269,156 +441,168 @@ public class IAT extends EmbeddableAmbientTalk {
 	
 	protected IAT(String[] args, IATIO iatio) throws InterpreterException {
 		// I) parse the command-line options
-		parseArguments(args);
+		this(IATConfiguration.fromArguments(args), iatio);
+	}
+	
+	/**
+	 * Boots a shell with the given configuration, reading from and writing to the given i/o. This
+	 * constructor allows hosting many independent shells within the same JVM, each with their own
+	 * configuration and i/o streams. The parsed init file and objectpath are shared by all shells.
+	 * 
+	 * @param config the configuration of the shell, which is not copied and should not be modified afterwards.
+	 * @param iatio the i/o of the shell, or null to use the console of the JVM.
+	 */
+	public IAT(IATConfiguration config, IATIO iatio) throws InterpreterException {
+		config_ = config;
+		publishDeprecatedSettings(config_);
+		long bootStart = System.nanoTime();
 		
-		// II) initialize i/o used by AmbientTalk before any task that may use the i/o
+		if (config_.logLevel != null){
+			//initialize the logging framework before any step of the boot sequence logs
+			computeLogProperties(config_.logLevel);
+		}
+		
+		// II) initialize i/o used by AmbientTalk, while the steps that do not need it proceed in parallel
 		if (iatio == null) {
-			initializeIATIO();
+			consoleStep_ = new BootStep<IATIO>("console", new Callable<IATIO>() {
+				public IATIO call() {
+					initializeIATIO();
+					return iatio_;
+				}
+			}).start();
 		} else {
 			iatio_ = iatio;
 		}
+		// -h and -v quit before booting, so they need not wait for (or fail on) the init file and objectpath
+		if (!config_.help && !config_.version) {
+			startBootSteps();
+		}
+		iatio_ = console();
+		if (!(iatio_ instanceof IATIOFramed)) {
+			initializeSessionIO();
+		}
+		printer_ = newResultPrinter();
 		
 		// III) handle -help or -version arguments
 		processInformativeArguments();
 		
 		// IV) boot sequence: 
 
-		//boot the virtual machine and evaluator actor.
-		repl_ = new ReadEvalPrintLoop(iatio_);
+		//boot the virtual machine and evaluator actor once the init file and objectpath are ready
+		if (initStep_ == null) {
+			// only reached by hosted shells, which do not quit on -h or -v
+			startBootSteps();
+		}
+		ATAbstractGrammar initCode = awaitInitFile(initStep_);
+		SharedActorField[] paths = join(pathsStep_);
+		lobby_ = paths[0];
+		SharedActorField[] fields = new SharedActorField[] {
+			computeSystemObject(config_.arguments),
+			paths[1],
+			lobby_ };
+		String networkName = (config_.networkName == null) ?
+				ELVirtualMachine._DEFAULT_GROUP_NAME_ :
+				config_.networkName;
+		// the virtual machines of a cluster only talk to one another over the loopback interface
+		String ipAddress = (config_.ipAddress != null) ? config_.ipAddress :
+				(config_.cluster > 1) ? AmbientTalkCluster._LOOPBACK_ADDRESS_ :
+				ELVirtualMachine._DEFAULT_IP_ADDRESS_;
 		// use the super method to initialize a virtual machine and evaluator actor 
-		super.initialize(	parseInitFile(),
-				new SharedActorField[] {
-			computeSystemObject(_ARGUMENTS_ARG_),
-			computeWorkingDirectory(),
-			computeObjectPath(initObjectPathString()) },
-			(_NETWORK_NAME_ARG_ == null) ?
-					ELVirtualMachine._DEFAULT_GROUP_NAME_ :
-						_NETWORK_NAME_ARG_,
-						(_IP_ADDRESS_ARG_ == null) ?
-							       ELVirtualMachine._DEFAULT_IP_ADDRESS_ :
-							       _IP_ADDRESS_ARG_);
+		super.initialize(initCode, fields, networkName, ipAddress);
+		Logging.Init_LOG.info("Booted in " + (System.nanoTime() - bootStart) / 1000000 + " ms (" +
+				(consoleStep_ == null ? "" : consoleStep_ + ", ") + initStep_ + ", " + pathsStep_ + ")");
+
+		// with --watch, invalidate modules on the objectpath as soon as they change
+		if (config_.watch) {
+			startWatchingObjectPath();
+		}
 
 		// evaluate the main code within the newly created shell
 		loadMainCode();
+		
+		// with --Xcluster N, boot N-1 additional virtual machines which all run the main code
+		if (config_.cluster > 1) {
+			bootCluster(config_.cluster - 1, initCode, fields, networkName, ipAddress);
+		}
 
-		// if -p was specified, quit immediately
-		if (_PRINT_ARG_)
-			System.exit(0);
-
-		// V) go into the REPL
-		startReadEvalPrintLoop();
-	}
-
-	// program arguments
-	public static String _FILE_ARG_ = null;
-	public static String[] _ARGUMENTS_ARG_ = null;
-	
-	public static String _INIT_ARG_ = null;
-	public static String _OBJECTPATH_ARG_ = null;
-	public static String _EVAL_ARG_ = null;
-	public static String _NETWORK_NAME_ARG_ = null;
-	public static String _IP_ADDRESS_ARG_ = null;
-	public static String _LOG_LEVEL_ARG_ = null;
-	
-	public static boolean _PRINT_ARG_ = false;
-	public static boolean _HELP_ARG_ = false;
-	public static boolean _VERSION_ARG_ = false;
-	public static boolean _QUIET_ARG_ = false;
-	public static boolean _NO_JLINE_ARG_ = false;
-	public static boolean _DEBUG_ARG_ = false;
+		// with --bench, measure the main code or the closures it defines, then quit
+		if (config_.bench) {
+			runBenchmarks();
+			exit(0);
+			return;
+		}
 
-	
-	// IMPORTANT SEQUENTIAL STARTUP ACTIONS
-	
-	private static void parseArguments(String[] args) {
-		// initialize long options
-		LongOpt[] longopts = new LongOpt[] {
-			new LongOpt("init", LongOpt.REQUIRED_ARGUMENT, null, 'i'),
-			new LongOpt("objectpath", LongOpt.REQUIRED_ARGUMENT, null, 'o'),
-			new LongOpt("eval", LongOpt.REQUIRED_ARGUMENT, null, 'e'),
-			new LongOpt("print", LongOpt.NO_ARGUMENT, null, 'p'),
-			new LongOpt("network", LongOpt.REQUIRED_ARGUMENT, null, 'n'),
-			new LongOpt("help", LongOpt.NO_ARGUMENT, null, 'h'),
-			new LongOpt("version", LongOpt.NO_ARGUMENT, null, 'v'),
-			new LongOpt("quiet", LongOpt.NO_ARGUMENT, null, 'q'),
-			new LongOpt("nojline", LongOpt.NO_ARGUMENT, null, 'j'),
-			new LongOpt("ip", LongOpt.REQUIRED_ARGUMENT, null, 'a'),
-			new LongOpt("Xdebug", LongOpt.NO_ARGUMENT, null, 'd'),
-			new LongOpt("log", LongOpt.REQUIRED_ARGUMENT, null, 'l')
-		};
-		
-		Getopt g = new Getopt(_EXEC_NAME_, args, "i:o:e:n:a:l:phvqjd:", longopts, true);
+		// if -p was specified, quit as soon as the actor work triggered by the main code is done
+		if (config_.print) {
+			awaitQuiescence();
+			exit(0);
+			return;
+		}
 
-		int c;
-		while ((c = g.getopt()) != -1) {
-		     switch(c) {
-		          case 'i': _INIT_ARG_ = g.getOptarg(); break;
-		          case 'o': _OBJECTPATH_ARG_ = g.getOptarg(); break;
-		          case 'e': _EVAL_ARG_ = g.getOptarg(); break;
-		          case 'n': _NETWORK_NAME_ARG_ = g.getOptarg(); break;
-		          case 'p': _PRINT_ARG_ = true; break;
-		          case 'h': _HELP_ARG_ = true; break;
-		          case 'v': _VERSION_ARG_ = true; break;
-		          case 'q': _QUIET_ARG_ = true; break;
-		          case 'j': _NO_JLINE_ARG_ = true;break;
-		          case 'a': _IP_ADDRESS_ARG_ = g.getOptarg(); break;
-		          case 'd': _DEBUG_ARG_ = true;break;
-		          case 'l': _LOG_LEVEL_ARG_ = g.getOptarg(); break;
-		          case '?':
-		        	   // getopt() already printed an error
-		        	   throw new Error("There were illegal options, quittING.");
-		          default:
-		            System.err.print("getopt() returned " + c + "\n");
-		       }
-		}
-		int firstNonOptionArgumentIdx = g.getOptind();
-		if (firstNonOptionArgumentIdx < args.length) {
-			// a file name to load was passed
-			_FILE_ARG_ = args[firstNonOptionArgumentIdx++];
-		}
-		_ARGUMENTS_ARG_ = new String[args.length - firstNonOptionArgumentIdx];
-		for (int i = 0; i < _ARGUMENTS_ARG_.length ; i++) {
-			_ARGUMENTS_ARG_[i] = args[i + firstNonOptionArgumentIdx];
+		// V) go into the REPL, or serve the requests of a tool with --framed
+		if (iatio_ instanceof IATIOFramed) {
+			serveFrames((IATIOFramed) iatio_);
+		} else {
+			startReadEvalPrintLoop();
+			if (replay_ != null) {
+				reportReplay();
+			}
 		}
 	}
 
-	
-	
 	protected void processInformativeArguments() {
 		// first process the informative arguments, -h, -v
-		if (_VERSION_ARG_) {
+		if (config_.version) {
 		  printVersion();
-		  System.exit(0);
+		  exit(0);
 		}
 		
-		if (_HELP_ARG_) {
+		if (config_.help) {
 		  printVersion();
 		  iatio_.println(_IAT_PROPS_.getProperty("help", "no help available"));
-		  System.exit(0);
+		  exit(0);
 		}
 		
-		if (!_QUIET_ARG_) {
+		// one-shot runs do not print a banner, such that their output is only that of the main code
+		if (!config_.quiet && !isOneShot()) {
 			printVersion();
 		}
 		
-		if (_LOG_LEVEL_ARG_ != null){
-			//initialize the logging framework
-			computeLogProperties();
-		}
-		
 	}
 	
 	static {
 		// First read the property file
 		try {
 			_IAT_PROPS_.load(IAT.class.getResourceAsStream("iat.props"));
-			_INPUT_PROMPT_ = _IAT_PROPS_.getProperty("inputprompt", ">");
-			_OUTPUT_PROMPT_ = _IAT_PROPS_.getProperty("outputprompt", ">>");
-			_READ_PROMPT_ = _IAT_PROPS_.getProperty("readprompt", "<<");
-			_CONTINUATION_PROMPT_ = _IAT_PROPS_.getProperty("continuationprompt", ".");
 		} catch (IOException e) {
 			System.err.println("Fatal error while trying to load internal properties: "+e.getMessage());
 		}
+		
+		publishDeprecatedSettings(new IATConfiguration());
+	}
+	
+	/**
+	 * Copies the given configuration into the deprecated static fields of IAT.
+	 */
+	private static synchronized void publishDeprecatedSettings(IATConfiguration config) {
+		_OUTPUT_PROMPT_ = config.outputPrompt;
+		_READ_PROMPT_ = config.readPrompt;
+		_CONTINUATION_PROMPT_ = config.continuationPrompt;
+		_FILE_ARG_ = config.file;
+		_ARGUMENTS_ARG_ = config.arguments;
+		_INIT_ARG_ = config.init;
+		_OBJECTPATH_ARG_ = config.objectPath;
+		_EVAL_ARG_ = config.eval;
+		_NETWORK_NAME_ARG_ = config.networkName;
+		_IP_ADDRESS_ARG_ = config.ipAddress;
+		_LOG_LEVEL_ARG_ = config.logLevel;
+		_PRINT_ARG_ = config.print;
+		_HELP_ARG_ = config.help;
+		_VERSION_ARG_ = config.version;
+		_QUIET_ARG_ = config.quiet;
+		_NO_JLINE_ARG_ = config.noJline;
+		_DEBUG_ARG_ = config.debug;
+		_CLUSTER_ARG_ = config.cluster;
 	}
 	
 	/**
@@ -432,14 +616,31 @@ public class IAT extends EmbeddableAmbientTalk {
 	 * If the user did not specify an objectpath using -o, a default object path
 	 * is constructed based on the environment variable $AT_OBJECTPATH
 	 */
-	protected static String initObjectPathString() {
+	protected String initObjectPathString() {
+		String objectPath = config_.objectPath;
 		// if -o was not used, consult the AT_OBJECTPATH environment variable instead
-		if (_OBJECTPATH_ARG_ == null) {
-			_OBJECTPATH_ARG_ = File.pathSeparator + System.getProperty(_ENV_AT_OBJECTPATH_, "");
+		if (objectPath == null) {
+			objectPath = File.pathSeparator + System.getProperty(_ENV_AT_OBJECTPATH_, "");
 		}
 		// always append the root atlib directories
 		// 'iat' automatically passes all of these atlib/* dirs in the 'AT_LIBPATH' env var
-		return _OBJECTPATH_ARG_ + File.pathSeparator + System.getProperty(_ENV_AT_LIBPATH_, "");
+		return objectPath + File.pathSeparator + System.getProperty(_ENV_AT_LIBPATH_, "");
+	}
+	
+	/**
+	 * Equivalent to {@link #computeObjectPath(String)}, but reuses the entries validated by another
+	 * shell in this JVM for the same objectpath, such that the objectpath is only validated once.
+	 */
+	protected SharedActorField computeSharedObjectPath(String objectPath) {
+		List<Object[]> entries;
+		synchronized (_OBJECTPATHS_) {
+			entries = _OBJECTPATHS_.get(objectPath);
+			if (entries == null) {
+				entries = Collections.unmodifiableList(parseObjectPath(objectPath));
+				_OBJECTPATHS_.put(objectPath, entries);
+			}
+		}
+		return new SAFLobby(new LinkedList<Object[]>(entries));
 	}
 	
 	/*
@@ -448,7 +649,11 @@ public class IAT extends EmbeddableAmbientTalk {
 	 * 
 	 */
 	protected void initializeIATIO() {
-		if (_NO_JLINE_ARG_) {
+		if (config_.framed) {
+			iatio_ = new IATIOFramed(System.in, System.out);
+		} else if (config_.noJline || isOneShot() || config_.replay != null) {
+			// one-shot runs need no command-line editing, which avoids loading jline and setting up the console
+			IATIOStandard._INSTANCE_.setEcho(!config_.quiet);
 			iatio_ = IATIOStandard._INSTANCE_;
 		}else{
 			iatio_ = IATIOJline._INSTANCE_;
@@ -474,51 +679,303 @@ public class IAT extends EmbeddableAmbientTalk {
 	}
 	
 	protected ATAbstractGrammar parseInitFile() throws InterpreterException {
-		// first, load the proper code from the init file
-		try {
-			if (_INIT_ARG_ != null) {
-				// the user specified a custom init file
-				File initFile = new File(_INIT_ARG_);
-				if (!initFile.exists()) {
-					abort("Unknown init file: "+_INIT_ARG_, null);
-				}			
-				if (_DEBUG_ARG_) {
-					 String initDebugCode = getInitDebuggerCode(initFile);
-					 return NATParser.parse(initFile.getName(), initDebugCode);
-				} else{
-					String initCode = Evaluator.loadContentOfFile(initFile);
-				  return NATParser.parse(initFile.getName(), initCode);
-				}
-			} else {
-				// use the default init file under $AT_INIT provided with the distribution
-				String defaultInit = System.getProperty(_ENV_AT_INIT_);
-				if (defaultInit == null) {
-					abort("Cannot load " + _INIT_FILE_NAME_+ ": none specified and no AT_INIT environment variable set", null);
+		return awaitInitFile(new BootStep<ATAbstractGrammar>("init file", initFileParser()).runHere());
+	}
+	
+	/**
+	 * Raised when there is no init file to load, its message explains why.
+	 */
+	private static final class MissingInitFileException extends FileNotFoundException {
+		MissingInitFileException(String message) {
+			super(message);
+		}
+	}
+	
+	/**
+	 * @return a task which loads and parses the proper init file. It does not report errors itself,
+	 * such that it can run before the i/o of the shell is initialized (see {@link #awaitInitFile(BootStep)}).
+	 */
+	private Callable<ATAbstractGrammar> initFileParser() {
+		return new Callable<ATAbstractGrammar>() {
+			public ATAbstractGrammar call() throws IOException, XParseError {
+				if (config_.init != null) {
+					// the user specified a custom init file
+					File initFile = new File(config_.init);
+					if (!initFile.exists()) {
+						throw new MissingInitFileException("Unknown init file: "+config_.init);
+					}			
+					return parseInitFile(initFile);
 				} else {
+					// use the default init file under $AT_INIT provided with the distribution
+					String defaultInit = System.getProperty(_ENV_AT_INIT_);
+					if (defaultInit == null) {
+						throw new MissingInitFileException("Cannot load " + _INIT_FILE_NAME_+ ": none specified and no AT_INIT environment variable set");
+					}
 					File initFile = new File(defaultInit);
 					if (!initFile.exists()) {
-						abort("Cannot load " + _INIT_FILE_NAME_+ " from default location " + initFile.getPath(), null);
+						throw new MissingInitFileException("Cannot load " + _INIT_FILE_NAME_+ " from default location " + initFile.getPath());
 					}					
-					if (_DEBUG_ARG_) {
-						String initDebugCode = getInitDebuggerCode(initFile);
-						return NATParser.parse(initFile.getName(), initDebugCode );
-					} else{
-						String initCode = Evaluator.loadContentOfFile(initFile);
-						//new BufferedInputStream(new FileInputStream(initFile));
-						return NATParser.parse(initFile.getName(), initCode);	
-					}
+					return parseInitFile(initFile);
 				}
 			}
+		};
+	}
+	
+	/**
+	 * Waits for the init file to be parsed, and reports the errors that prevented it from being parsed.
+	 */
+	private ATAbstractGrammar awaitInitFile(BootStep<ATAbstractGrammar> parse) throws InterpreterException {
+		try {
+			return parse.await();
+		} catch (MissingInitFileException e) {
+			abort(e.getMessage(), null);
 		} catch (XParseError e) {
 			handleParseError(null, e);
 			abort("Parse error in init file, aborting", e);
 		} catch (IOException e) {
 			abort("Error reading the init file: "+e.getMessage(), e);
+		} catch (InterpreterException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			abort("Error reading the init file: "+e.getMessage(), e);
 		}
 		
 		return null;
 	}
 	
+	/**
+	 * A step of the boot sequence which runs on a thread of its own, such that steps which do not depend
+	 * on one another overlap: setting up the console (loading jline and configuring the terminal),
+	 * reading and parsing the init file, and validating the objectpath (which accesses every root).
+	 * The virtual machine is only created once the steps it needs have completed. Every step records its
+	 * duration, which is logged once the shell has booted.
+	 */
+	private static final class BootStep<T> extends FutureTask<T> {
+		private final String name_;
+		private volatile long millis_ = -1;
+		
+		BootStep(String name, Callable<T> step) {
+			super(step);
+			name_ = name;
+		}
+		
+		public void run() {
+			long start = System.nanoTime();
+			super.run();
+			millis_ = (System.nanoTime() - start) / 1000000;
+		}
+		
+		BootStep<T> start() {
+			Thread thread = new Thread(this, "iat boot: " + name_);
+			thread.setDaemon(true);
+			thread.start();
+			return this;
+		}
+		
+		/** runs the step on the current thread instead */
+		BootStep<T> runHere() {
+			run();
+			return this;
+		}
+		
+		/**
+		 * @return the result of the step, once it has completed
+		 * @throws Exception the exception raised by the step
+		 */
+		T await() throws Exception {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return get();
+					} catch (InterruptedException e) {
+						// the boot sequence cannot continue without the result
+						interrupted = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw (Exception) cause;
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		
+		public String toString() {
+			return name_ + " " + millis_ + " ms";
+		}
+	}
+	
+	/**
+	 * Starts parsing the init file and validating the objectpath (and working directory).
+	 */
+	private void startBootSteps() {
+		initStep_ = new BootStep<ATAbstractGrammar>("init file", initFileParser()).start();
+		pathsStep_ = new BootStep<SharedActorField[]>("objectpath", new Callable<SharedActorField[]>() {
+			public SharedActorField[] call() {
+				return new SharedActorField[] {
+					computeSharedObjectPath(initObjectPathString()),
+					computeWorkingDirectory() };
+			}
+		}).start();
+	}
+	
+	/**
+	 * @return the result of a step which raises no checked exceptions
+	 */
+	private static <T> T join(BootStep<T> step) {
+		try {
+			return step.await();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Boot step " + step + " failed: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * @return the i/o of this shell, waiting for it to be initialized if necessary. Steps of the boot
+	 * sequence which run in parallel with the initialization of the i/o use it to report errors.
+	 */
+	private IATIO console() {
+		IATIO iatio = iatio_;
+		if (iatio == null && consoleStep_ != null) {
+			iatio = join(consoleStep_);
+		}
+		return iatio;
+	}
+	
+	/**
+	 * Parses the given init file, or its debugger variant if -d was specified. The parse tree is shared
+	 * with all other shells in this JVM which use the same init file, and is only parsed anew when the
+	 * file was modified since it was last parsed.
+	 */
+	private ATAbstractGrammar parseInitFile(File initFile) throws IOException, XParseError {
+		initFile_ = initFile;
+		String key = (config_.debug ? "debug:" : "") + initFile.getCanonicalPath();
+		Long lastModified = Long.valueOf(initFile.lastModified());
+		synchronized (_INIT_ASTS_) {
+			Object[] cached = _INIT_ASTS_.get(key);
+			if (cached != null && cached[0].equals(lastModified)) {
+				return (ATAbstractGrammar) cached[1];
+			}
+			ATAbstractGrammar ast;
+			if (config_.debug) {
+				String initDebugCode = getInitDebuggerCode(initFile);
+				ast = IATEvents.parse(initFile.getName(), initDebugCode);
+			} else {
+				String initCode = Evaluator.loadContentOfFile(initFile);
+				ast = IATEvents.parse(initFile.getName(), initCode);
+			}
+			_INIT_ASTS_.put(key, new Object[] { lastModified, ast });
+			return ast;
+		}
+	}
+	
+	/**
+	 * Makes the current actor debuggable by evaluating the debugger instrumentation of initDebugger.at (which
+	 * resides next to the init file) in it. Contrary to -d, which makes every actor debuggable by evaluating
+	 * initDebugger.at instead of the init file, this only instruments the selected actor: other actors run
+	 * without any overhead. Must be called by the actor to debug, e.g. through <tt>system.debug()</tt>.
+	 * <p>
+	 * initDebugger.at repeats the code of the init file, which the actor already evaluated. Only the
+	 * statements of initDebugger.at which do not occur in the init file are evaluated (see
+	 * {@link #debuggerInstrumentation(ATAbstractGrammar, ATAbstractGrammar)}), in a scope nested in the
+	 * actor's global scope: their definitions do not clash with those of the init file, while the debugging
+	 * behaviour they install in the actor's mirror applies to the actor as a whole. Hence the unit of
+	 * selection is the actor, individual namespaces or source files cannot be selected.
+	 * 
+	 * @return false if the actor was debuggable already, true otherwise
+	 * @throws XIOProblem if initDebugger.at cannot be read
+	 */
+	public boolean attachDebugger() throws InterpreterException {
+		if (config_.debug) {
+			// with -d, all actors are debuggable from the start
+			return false;
+		}
+		ELActor actor = ELActor.currentActor();
+		if (debuggedActors_.put(actor, Boolean.TRUE) != null) {
+			return false;
+		}
+		try {
+			// parsed first, as it reports a missing init file
+			ATAbstractGrammar debuggerCode = parseInitDebuggerFile();
+			ATObject[] instrumentation = debuggerInstrumentation(parseInitFile(initFile_), debuggerCode);
+			NATObject globalScope = Evaluator.getGlobalLexicalScope();
+			NATContext context = new NATContext(new NATCallframe(globalScope), globalScope);
+			for (int i = 0; i < instrumentation.length; i++) {
+				instrumentation[i].meta_eval(context);
+			}
+			return true;
+		} catch (IOException e) {
+			debuggedActors_.remove(actor);
+			throw new XIOProblem(e);
+		} catch (InterpreterException e) {
+			debuggedActors_.remove(actor);
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return the top-level statements of the debugger init code which do not occur (with the same
+	 * printed representation) among the top-level statements of the init code, in their original order
+	 */
+	public static ATObject[] debuggerInstrumentation(ATAbstractGrammar initCode, ATAbstractGrammar debuggerCode) throws InterpreterException {
+		Set<String> initStatements = new HashSet<String>();
+		for (ATObject statement : statementsOf(initCode)) {
+			initStatements.add(statement.meta_print().javaValue);
+		}
+		List<ATObject> instrumentation = new ArrayList<ATObject>();
+		for (ATObject statement : statementsOf(debuggerCode)) {
+			if (!initStatements.contains(statement.meta_print().javaValue)) {
+				instrumentation.add(statement);
+			}
+		}
+		return instrumentation.toArray(new ATObject[instrumentation.size()]);
+	}
+	
+	private static ATObject[] statementsOf(ATAbstractGrammar code) throws InterpreterException {
+		if (code instanceof ATBegin) {
+			return ((ATBegin) code).base_statements().asNativeTable().elements_;
+		}
+		return new ATObject[] { code };
+	}
+	
+	/**
+	 * Parses initDebugger.at, sharing the parse tree with the other shells in this JVM like init files.
+	 */
+	private ATAbstractGrammar parseInitDebuggerFile() throws InterpreterException {
+		if (initFile_ == null) {
+			throw new XIOProblem(new IOException("Cannot load " + _INITDEBUGGER_FILE_NAME_ + ": no init file was loaded"));
+		}
+		File debuggerFile = new File(initFile_.getAbsoluteFile().getParentFile(), _INITDEBUGGER_FILE_NAME_);
+		try {
+			String key = "attach:" + debuggerFile.getCanonicalPath();
+			Long lastModified = Long.valueOf(debuggerFile.lastModified());
+			synchronized (_INIT_ASTS_) {
+				Object[] cached = _INIT_ASTS_.get(key);
+				if (cached != null && cached[0].equals(lastModified)) {
+					return (ATAbstractGrammar) cached[1];
+				}
+				if (!debuggerFile.exists()) {
+					throw new IOException("Cannot load " + _INITDEBUGGER_FILE_NAME_ + " : " + debuggerFile.getPath());
+				}
+				ATAbstractGrammar ast = IATEvents.parse(debuggerFile.getName(), Evaluator.loadContentOfFile(debuggerFile));
+				_INIT_ASTS_.put(key, new Object[] { lastModified, ast });
+				return ast;
+			}
+		} catch (IOException e) {
+			throw new XIOProblem(e);
+		}
+	}
+	
 	/**
 	 * Load the code in the main argument file or the code specified using the -e option.
 	 * As a side-effect, sets the scriptSource variable to reflect where the code was taken
@@ -529,14 +986,14 @@ public class IAT extends EmbeddableAmbientTalk {
 	 */
 	protected void loadMainCode() {
 		// evaluate startup code, which is either the given code (-e) or the code in the main file
-		if (_EVAL_ARG_ != null) {
+		if (config_.eval != null) {
 			// the executed script is provided via the command line
 			scriptSource_ = "commandline";
 
 			// evaluate the -e code and disregard the main file
-			evalAndPrint(_EVAL_ARG_);			
-		} else if (_FILE_ARG_ != null) {
-			loadCodeFromFile(_FILE_ARG_);
+			evalAndPrint(config_.eval);			
+		} else if (config_.file != null) {
+			loadCodeFromFile(config_.file);
 		}
 	}
 	
@@ -558,6 +1015,278 @@ public class IAT extends EmbeddableAmbientTalk {
 		}
 	}
 		
+	/**
+	 * Boots the additional virtual machines of a cluster, which share the init code and actor fields of
+	 * the shell's own virtual machine. The main code (-e or the main file) is evaluated on every additional
+	 * virtual machine. The shell itself acts as node 0 of the cluster, the additional machines are numbered
+	 * from 1 onwards in the :cluster and :on shell commands.
+	 */
+	/**
+	 * @return a printer that bounds the output of a value by the 'printdepth', 'printelements' and 'printchars' properties
+	 */
+	protected StreamingResultPrinter newResultPrinter() {
+		return new StreamingResultPrinter(iatio_,
+				intProperty("printdepth", 8),
+				intProperty("printelements", 1000),
+				intProperty("printchars", 65536));
+	}
+	
+	/**
+	 * Reports the outcome of code sent to another node by :on like that of code evaluated by the REPL.
+	 * Values are printed by the actor of the node, using a printer of their own such that they do not
+	 * interfere with the output of the REPL's values (hence :more does not continue them).
+	 */
+	private final AmbientTalkCluster.Output clusterOutput_ = new AmbientTalkCluster.Output() {
+		public void printValue(int node, ATObject value) throws InterpreterException {
+			synchronized (clusterPrinter_) {
+				clusterPrinter_.print("node " + node + (config_.quiet ? ": " : " " + config_.outputPrompt), value);
+			}
+		}
+		
+		public void printException(int node, InterpreterException e) {
+			handleATException(null, e);
+		}
+		
+		public void printParseError(int node, String script, XParseError e) {
+			handleParseError(script, e);
+		}
+	};
+	
+	protected void bootCluster(int size, ATAbstractGrammar initCode, SharedActorField[] fields, String networkName, String ipAddress) {
+		AmbientTalkCluster.LinkModel linkModel = new AmbientTalkCluster.LinkModel(
+				intProperty("clusterlatency", 0),
+				intProperty("clusterjitter", 0),
+				intProperty("clusterloss", 0) / 100.0);
+		clusterPrinter_ = newResultPrinter();
+		cluster_ = new AmbientTalkCluster(size, 1, initCode, fields, networkName, ipAddress, iatio_, linkModel);
+		
+		String mainCode = config_.eval;
+		if (mainCode == null && config_.file != null) {
+			try {
+				mainCode = Evaluator.loadContentOfFile(new File(config_.file.trim()));
+			} catch (IOException e) {
+				abort("Error reading file: "+e.getMessage(), e);
+			}
+		}
+		if (mainCode != null) {
+			cluster_.evalEverywhere(mainCode);
+		}
+	}
+	
+	/**
+	 * Starts watching the directories of the objectpath, such that modified modules are
+	 * reloaded the next time they are accessed.
+	 * @see LobbyWatcher#startWatching()
+	 */
+	protected void startWatchingObjectPath() {
+		if (lobby_ instanceof SAFLobby) {
+			try {
+				((SAFLobby) lobby_).getWatcher().startWatching();
+			} catch (IOException e) {
+				iatio_.println("Cannot watch the objectpath: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Invalidates the modules on the objectpath which were modified since the shell was started or
+	 * since the last reload, such that they are reloaded the next time they are accessed. Contrary to
+	 * {@link #softReset()}, all other state of the shell and its actors is preserved.
+	 * @return the number of modified modules
+	 */
+	public int reloadModifiedModules() {
+		if (lobby_ instanceof SAFLobby) {
+			return ((SAFLobby) lobby_).getWatcher().reloadModified();
+		}
+		return 0;
+	}
+	
+	/**
+	 * Benchmarks the main code (-e or the main file), or if --benchfn was given, each of the
+	 * comma-separated closures it names. The closures are looked up in the global scope, after the main
+	 * code was evaluated, and are applied without arguments.
+	 * <p>
+	 * Every benchmark is run in a number of forks (--forks), between which a garbage collection is forced.
+	 * A fork performs a number of unmeasured warmup operations (--warmup) followed by the measured
+	 * operations (--iterations). All operations of a fork are performed as a single task of the evaluator
+	 * actor, such that only the synchronous part of the benchmarked code is measured: messages sent
+	 * by the code are only processed once the fork completes.
+	 * <p>
+	 * The results are printed as a table. With --json file, they are also written to the given file
+	 * in JSON format, or printed instead of the table if the file is '-'.
+	 */
+	protected void runBenchmarks() {
+		List<IATBenchmark> benchmarks = new ArrayList<IATBenchmark>();
+		try {
+			if (config_.benchFunctions == null) {
+				String mainCode = config_.eval;
+				if (mainCode == null) {
+					if (config_.file == null) {
+						abort("--bench requires a file or -e code to benchmark", null);
+					}
+					mainCode = Evaluator.loadContentOfFile(new File(config_.file.trim()));
+				}
+				final ATAbstractGrammar ast = IATEvents.parse(scriptSource_, mainCode);
+				benchmarks.add(runBenchmark(new File(scriptSource_).getName(), new IATBenchmark.Operation() {
+					public void perform() throws Exception {
+						evalInCurrentActor(ast);
+					}
+				}));
+			} else {
+				String[] names = config_.benchFunctions.split(",");
+				for (int i = 0; i < names.length; i++) {
+					final ATAbstractGrammar name = IATEvents.parse(scriptSource_, names[i].trim());
+					final ATClosure closure = (ATClosure) sync_performTask(new Callable<Object>() {
+						public Object call() throws Exception {
+							return evalInCurrentActor(name).asClosure();
+						}
+					});
+					benchmarks.add(runBenchmark(names[i].trim(), new IATBenchmark.Operation() {
+						public void perform() throws Exception {
+							closure.base_apply(NATTable.EMPTY);
+						}
+					}));
+				}
+			}
+		} catch (XParseError e) {
+			handleParseError(null, e);
+			return;
+		} catch (InterpreterException e) {
+			handleATException(null, e);
+			return;
+		} catch (Exception e) {
+			abort("Error while benchmarking: " + e.getMessage(), e);
+			return;
+		}
+		
+		if ("-".equals(config_.benchJson)) {
+			iatio_.print(IATBenchmark.toJSON(benchmarks));
+			return;
+		}
+		iatio_.print(IATBenchmark.toTable(benchmarks));
+		if (config_.benchJson != null) {
+			try {
+				Writer json = new FileWriter(config_.benchJson);
+				try {
+					json.write(IATBenchmark.toJSON(benchmarks));
+				} finally {
+					json.close();
+				}
+			} catch (IOException e) {
+				abort("Error writing benchmark results: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	private IATBenchmark runBenchmark(String name, final IATBenchmark.Operation operation) throws Exception {
+		final IATBenchmark benchmark = new IATBenchmark(name);
+		for (int fork = 0; fork < config_.benchForks; fork++) {
+			System.gc();
+			sync_performTask(new Callable<Object>() {
+				public Object call() throws Exception {
+					benchmark.runFork(operation, config_.benchWarmup, config_.benchIterations);
+					return null;
+				}
+			});
+		}
+		return benchmark;
+	}
+	
+	/**
+	 * Serves the requests of a tool that speaks the framed protocol of {@link IATIOFramed}. Requests are
+	 * read by a dedicated thread, which parses the code of every eval request and schedules it for
+	 * evaluation by the evaluator actor without waiting for the result, such that tools can pipeline
+	 * requests. The read-eval-print loop is started but does not read input of its own, it only serves
+	 * <tt>readNextLine:catch:</tt> requests using the input frames sent by the tool.
+	 * <p>
+	 * A malformed frame is answered with an error frame and skipped. Once the tool sends a quit frame,
+	 * the shell quits after all pending requests were answered. If the input is closed without a quit
+	 * frame or cannot be read, the pending requests are answered as well but the shell quits with a
+	 * non-zero exit status.
+	 */
+	protected void serveFrames(final IATIOFramed framed) {
+		scriptSource_ = "framed";
+		getReadEvalPrintLoop().start();
+		framed.writeFrame("ready", "version", _IAT_PROPS_.getProperty("version", "unknown version"));
+		Thread server = new Thread("iat framed protocol") {
+			public void run() {
+				int status = 1;
+				try {
+					Map<String, Object> request;
+					while ((request = readFramedRequest(framed)) != null) {
+						Object type = request.get("type");
+						if ("eval".equals(type)) {
+							evalFramed(framed, request.get("id"), String.valueOf(request.get("code")));
+						} else if ("quit".equals(type)) {
+							status = 0;
+							break;
+						} else {
+							framed.writeFrame("error", "id", request.get("id"), "message", "unknown request type: " + type);
+						}
+					}
+				} catch (IOException e) {
+					Logging.Init_LOG.error("Stopped serving framed requests: " + e.getMessage(), e);
+				}
+				try {
+					// wait until all scheduled evaluations were answered
+					sync_performTask(new Callable<Object>() {
+						public Object call() {
+							return null;
+						}
+					});
+				} catch (Exception e) {
+					Logging.Init_LOG.error("Pending framed requests were not answered: " + e.getMessage(), e);
+					status = 1;
+				}
+				exit(status);
+			}
+		};
+		server.start();
+	}
+	
+	/**
+	 * @return the next request, or null if the input was closed. Malformed frames are answered and skipped.
+	 */
+	private static Map<String, Object> readFramedRequest(IATIOFramed framed) throws IOException {
+		while (true) {
+			try {
+				return framed.readRequest();
+			} catch (IATIOFramed.MalformedFrameException e) {
+				framed.writeFrame("error", "id", e.getRequestId(), "message", e.getMessage());
+			}
+		}
+	}
+	
+	private void evalFramed(final IATIOFramed framed, final Object id, String code) {
+		final ATAbstractGrammar ast;
+		try {
+			ast = IATEvents.parse(scriptSource_, code);
+		} catch (XParseError e) {
+			framed.writeFrame("parse-error", "id", id, "message", e.getMessage(),
+					"line", Long.valueOf(e.getLine()), "column", Long.valueOf(e.getColumn()));
+			return;
+		}
+		Runnable evaluation = new Runnable() {
+			public void run() {
+				framed.setCurrentRequest(id);
+				try {
+					// the value is printed by the evaluator actor, see parseSendAndPrint
+					ATObject value = evalInCurrentActor(ast);
+					framed.writeFrame("result", "id", id, "value", value.meta_print().javaValue);
+				} catch (InterpreterException e) {
+					framed.writeFrame("error", "id", id, "message", e.getMessage(), "trace", ambientTalkStackTrace(e));
+				} finally {
+					framed.setCurrentRequest(null);
+				}
+			}
+		};
+		try {
+			scheduleEvent(new FutureTask<Object>(evaluation, null));
+		} catch (RejectedExecutionException e) {
+			framed.writeFrame("error", "id", id, "message", e.getMessage());
+		}
+	}
+	
 	/**
 	 * Reads a single line of input, and schedules it for evaluation. The scheduling is performed by
 	 * calling the {@link ELActor#sync_event_eval(ATAbstractGrammar)} method on the evaluator_ actor.
@@ -566,7 +1295,7 @@ public class IAT extends EmbeddableAmbientTalk {
 	 */
 	protected void startReadEvalPrintLoop() {
 		scriptSource_ = "REPL";
-		repl_.start();
+		getReadEvalPrintLoop().start();
 		
 		/*String input;
 		try {
@@ -577,6 +1306,109 @@ public class IAT extends EmbeddableAmbientTalk {
 			abort("Error reading input: "+e.getMessage(), e);
 		}*/
 	}
+	/**
+	 * With --replay, replaces the i/o by one that re-drives the recorded session. With --record,
+	 * decorates the i/o such that the session is recorded.
+	 */
+	protected void initializeSessionIO() {
+		if (config_.replay != null) {
+			try {
+				Reader log = new InputStreamReader(new FileInputStream(config_.replay), "UTF-8");
+				try {
+					replay_ = new IATIOReplay(SessionLog.read(log), config_.readPrompt);
+				} finally {
+					log.close();
+				}
+			} catch (IOException e) {
+				abort("Cannot replay session " + config_.replay + ": " + e.getMessage(), e);
+			}
+			replayConsole_ = iatio_;
+			iatio_ = replay_;
+		} else if (config_.record != null) {
+			try {
+				SessionLog log = new SessionLog(new FileOutputStream(config_.record),
+						_IAT_PROPS_.getProperty("version", "unknown version"));
+				iatio_ = new IATIORecorder(iatio_, log, config_.readPrompt);
+			} catch (IOException e) {
+				abort("Cannot record session to " + config_.record + ": " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Waits until the read-eval-print loop has read all lines of the replayed session, then reports
+	 * the latency and output differences of every line and quits. The exit status is 1 if the output
+	 * of any line differs from the recorded output.
+	 */
+	protected void reportReplay() {
+		try {
+			replay_.awaitEnd();
+		} catch (InterruptedException e) {
+			// report the lines replayed so far
+		}
+		replayConsole_.print(replay_.report());
+		exit(replay_.hasDifferences() ? 1 : 0);
+	}
+	
+	/**
+	 * @return the read-eval-print loop of this shell, which is created on first use. Its thread
+	 * only starts reading from the console once the shell enters the REPL.
+	 */
+	public synchronized ReadEvalPrintLoop getReadEvalPrintLoop() {
+		if (repl_ == null) {
+			repl_ = new ReadEvalPrintLoop(iatio_);
+		}
+		return repl_;
+	}
+	
+	/**
+	 * @return whether the shell quits after evaluating the main code (-p or --bench), rather than
+	 * entering the REPL. Such runs skip the banner and console setup. A plain <tt>iat script.at</tt>
+	 * run is not one-shot: it enters the REPL once the script is evaluated, so it needs the console.
+	 */
+	protected boolean isOneShot() {
+		return config_.print || config_.bench;
+	}
+	
+	/**
+	 * Waits until the actors of this shell have processed all events triggered by the main code (e.g.
+	 * the resolution of futures), which is the case when the mailboxes of the evaluator actor and of all
+	 * actors in {@link #actors_} remained empty for 'quiescentperiod' milliseconds. Gives up after
+	 * 'quiescencetimeout' milliseconds, as the main code may keep the actors busy indefinitely.
+	 */
+	protected void awaitQuiescence() {
+		long quietPeriod = intProperty("quiescentperiod", 20);
+		long deadline = System.currentTimeMillis() + intProperty("quiescencetimeout", 5000);
+		long quietSince = System.currentTimeMillis();
+		try {
+			while (System.currentTimeMillis() < deadline) {
+				ELActor evaluator = evaluator_;
+				if (ActorRegistry.mailboxLength(evaluator) > 0 || getQueuedEventCount() > 0) {
+					// let the actor process its pending events before checking again
+					sync_performTask(new Callable<Object>() {
+						public Object call() {
+							return null;
+						}
+					});
+					quietSince = System.currentTimeMillis();
+				} else if (actors_.pendingEvents() > 0) {
+					// other actors are still busy, and may send further events to the evaluator
+					Thread.sleep(5);
+					quietSince = System.currentTimeMillis();
+				} else if (System.currentTimeMillis() - quietSince >= quietPeriod) {
+					return;
+				} else {
+					Thread.sleep(5);
+				}
+			}
+			Logging.Init_LOG.warn("Quitting while the actors are still busy");
+		} catch (InterruptedException e) {
+			// quit right away
+		} catch (Exception e) {
+			Logging.Init_LOG.error("Error while waiting for the actors: " + e.getMessage(), e);
+		}
+	}
+	
 	/**
 	 * @see {@link #IAT(String[])}       
 	 * @param args arguments passed to the JVM, which should all be interpreted as arguments to 'iat'
@@ -631,37 +1463,224 @@ public class IAT extends EmbeddableAmbientTalk {
 		return Evaluator.getNil();
 	}
 	
+	/**
+	 * Prints the first occurrence of an exception together with its AmbientTalk stack trace.
+	 * Repeated occurrences of the same exception are aggregated: they are not printed individually,
+	 * a count of the repetitions is printed at most once per 'exceptionsummaryinterval'
+	 * milliseconds instead. Counts that are still pending are printed along with later exceptions,
+	 * by the :errors command and when the shell quits.
+	 * @see ExceptionAggregator
+	 */
 	protected ATObject handleATException(String script, InterpreterException e) {
-		iatio_.println(e.getMessage());
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		PrintStream ps = new PrintStream(baos);
-		e.printAmbientTalkStackTrace(ps);
-		try {
-			String content = baos.toString("UTF8");
-			iatio_.println(content);
-		} catch (UnsupportedEncodingException e1) {
-			Logging.Actor_LOG.error("unnable to print exception from handleATException");
-		}	
+		long now = System.currentTimeMillis();
+		long occurrences = exceptions_.record(e, now);
+		if (occurrences == ExceptionAggregator._FIRST_OCCURRENCE_) {
+			iatio_.println(e.getMessage());
+			String content = ambientTalkStackTrace(e);
+			if (content != null) {
+				iatio_.println(content);
+			}
+		} else if (occurrences != ExceptionAggregator._SUPPRESSED_) {
+			iatio_.println(e.getMessage() + " (repeated " + occurrences + " times since last report)");
+		}
+		printUnreportedExceptions(exceptions_.drainUnreported(now));
 		return Evaluator.getNil();
 	}
 	
+	/**
+	 * Prints the number of repetitions of each exception that were not yet summarized.
+	 */
+	protected void printUnreportedExceptions(Map<String, Long> unreported) {
+		for (Map.Entry<String, Long> entry : unreported.entrySet()) {
+			iatio_.println(ExceptionAggregator.describe(entry.getKey()) +
+					" (repeated " + entry.getValue() + " times since last report)");
+		}
+	}
+	
+	/**
+	 * @return the AmbientTalk stack trace of the exception, or null if it cannot be printed
+	 */
+	protected static String ambientTalkStackTrace(InterpreterException e) {
+		return ExceptionAggregator.ambientTalkStackTrace(e);
+	}
+	
+	/**
+	 * @return the number of times each distinct exception was reported to the shell,
+	 * indexed by the exception's fingerprint.
+	 * @see ExceptionAggregator#fingerprint(Throwable)
+	 */
+	public Map<String, Long> getExceptionCounts() {
+		return exceptions_.getCounts();
+	}
+	
+	/**
+	 * @return the registry of the actors created by this shell, which register themselves when their
+	 * system object is initialized.
+	 */
+	public ActorRegistry getActorRegistry() {
+		return actors_;
+	}
+	
+	/**
+	 * Evaluates the script and streams its value onto the console, preceded by the output prompt.
+	 * Large values are truncated, the remainder can be requested using {@link #printMore()}.
+	 */
 	public void evalAndPrint(String script) {
-		String result = parseSendAndPrint(script);
-		if (!_QUIET_ARG_) {
-			iatio_.print(_OUTPUT_PROMPT_);
+		parseSendAndStream(script, printer_, config_.quiet ? "" : config_.outputPrompt);
+	}
+	
+	/**
+	 * Evaluates input read by the REPL. With --pipeline, the input is submitted as a job and the
+	 * REPL reads the next input right away, otherwise the REPL waits for its value to be printed.
+	 */
+	protected void evalInput(String script) {
+		if (config_.pipeline) {
+			submitJob(script);
+		} else {
+			evalAndPrint(script);
+		}
+	}
+	
+	/**
+	 * An evaluation submitted by the REPL in pipelined mode. Jobs are evaluated by the evaluator actor
+	 * in the order in which they were submitted. The value of a job is printed as soon as it is
+	 * available, tagged with the sequence number of the job (e.g. <tt>[3]>>42</tt>). A line requested by
+	 * a job using <tt>readNextLine:catch:</tt> is the next line read by the REPL, rather than the next input.
+	 */
+	private final class Job extends FutureTask<Object> {
+		final int sequence_;
+		final String script_;
+		final long submitted_ = System.nanoTime();
+		volatile boolean started_ = false;
+		
+		Job(final int sequence, final String script, final ATAbstractGrammar ast) {
+			super(new Callable<Object>() {
+				public Object call() {
+					String prefix = config_.quiet ? "" : "[" + sequence + "]" + config_.outputPrompt;
+					try {
+						printer_.print(prefix, evalRecorded("job", ast));
+					} catch (InterpreterException e) {
+						printer_.printText(prefix, handleATException(script, e).toString());
+					}
+					return null;
+				}
+			});
+			sequence_ = sequence;
+			script_ = script;
+		}
+		
+		public void run() {
+			started_ = true;
+			super.run();
+		}
+		
+		protected void done() {
+			jobs_.remove(Integer.valueOf(sequence_));
+		}
+		
+		public String toString() {
+			String script = script_.trim().replace('\n', ' ');
+			return String.format(Locale.ROOT, "[%d] %-7s %8.1f s  %s", sequence_, started_ ? "running" : "queued",
+					(System.nanoTime() - submitted_) / 1e9, (script.length() > 60) ? script.substring(0, 57) + "..." : script);
+		}
+	}
+	
+	/**
+	 * Parses the script and schedules it for evaluation by the evaluator actor, without waiting for it.
+	 * Parse errors are reported right away.
+	 * @return the sequence number of the job, or -1 if the script could not be submitted
+	 */
+	protected int submitJob(String script) {
+		final ATAbstractGrammar ast;
+		try {
+			ast = IATEvents.parse(scriptSource_, script);
+		} catch (XParseError e) {
+			handleParseError(script, e);
+			return -1;
+		}
+		int sequence = jobSequence_.incrementAndGet();
+		Job job = new Job(sequence, script, ast);
+		jobs_.put(Integer.valueOf(sequence), job);
+		try {
+			scheduleEvent(job);
+		} catch (RejectedExecutionException e) {
+			jobs_.remove(Integer.valueOf(sequence));
+			iatio_.println("[" + sequence + "] rejected: " + e.getMessage());
+			return -1;
+		}
+		return sequence;
+	}
+	
+	/**
+	 * @return a description of every job that has not completed yet, in the order in which they were submitted
+	 */
+	public List<String> describeJobs() {
+		List<String> descriptions = new ArrayList<String>();
+		synchronized (jobs_) {
+			for (Job job : jobs_.values()) {
+				descriptions.add(job.toString());
+			}
+		}
+		return descriptions;
+	}
+	
+	/**
+	 * Waits until the job with the given sequence number has completed, or until all jobs submitted
+	 * so far have completed if the sequence number is negative.
+	 * @return false if there was no such job, or if it had completed already
+	 */
+	public boolean awaitJob(int sequence) throws InterruptedException {
+		List<Job> awaited = new ArrayList<Job>();
+		synchronized (jobs_) {
+			for (Job job : jobs_.values()) {
+				if (sequence < 0 || job.sequence_ == sequence) {
+					awaited.add(job);
+				}
+			}
+		}
+		for (Job job : awaited) {
+			try {
+				job.get();
+			} catch (ExecutionException e) {
+				// reported by the job itself
+			} catch (CancellationException e) {
+				// the job waited too long to be started
+			}
+		}
+		return !awaited.isEmpty();
+	}
+	
+	/**
+	 * Prints the next page of the value last printed by {@link #evalAndPrint(String)}.
+	 * The remainder of the value is printed by the evaluator actor, which owns the value.
+	 */
+	public void printMore() {
+		try {
+			sync_performTask(new Callable<Object>() {
+				public Object call() throws Exception {
+					printer_.printMore();
+					return null;
+				}
+			});
+		} catch (InterpreterException e) {
+			handleATException(null, e);
+		} catch (Exception e) {
+			abort("Unexpected exception: " + e.getMessage(), e);
 		}
-		iatio_.println(result);
 	}
 	
 	// return 0 if everything goes fine, 1 otherwise
 	public int softReset(){
+		IATEvents.SoftReset event = new IATEvents.SoftReset();
+		event.begin();
 		try {
 			ATAbstractGrammar initCode = parseInitFile();
 			super.reinitialize(initCode);
 			// show info if not quiet version
-			if (!_QUIET_ARG_) {
+			if (!config_.quiet) {
 				printVersion();
 			}
+			event.succeeded = true;
 			return 0;
 		} catch (InterpreterException e) {
 			Logging.Init_LOG.error("error while parsing init file:", e);
@@ -669,12 +1688,34 @@ public class IAT extends EmbeddableAmbientTalk {
 		} catch (Exception e2) {
 			Logging.Init_LOG.error("fatal error while reinitializing the VM and evaluator actor:", e2);
 			return 1;
+		} finally {
+			if (event.shouldCommit()) {
+				event.actor = IATEvents.actorIdentity(evaluator_);
+				event.commit();
+			}
 		}
 	}
 	
 	protected void abort(String message, Exception e) {
-		iatio_.println(message);
-		System.exit(1);
+		console().println(message);
+		exit(1);
+		// only reached when hosted with exitOnQuit disabled: the shell cannot continue
+		throw new IllegalStateException(message);
+	}
+	
+	/**
+	 * Quits the shell with the given exit status. Unless the configuration of the shell specifies
+	 * otherwise, this exits the JVM. Hosted shells merely stop their read-eval-print loop.
+	 */
+	public void exit(int status) {
+		if (iatio_ != null) {
+			printUnreportedExceptions(exceptions_.drainUnreported());
+		}
+		if (config_.exitOnQuit) {
+			System.exit(status);
+		} else if (repl_ != null) {
+			repl_.stopProcessing();
+		}
 	}
 	
 	public SharedActorField computeSystemObject(Object[] arguments) {
@@ -692,9 +1733,9 @@ public class IAT extends EmbeddableAmbientTalk {
 				pathName = defaultWorkingDirectoryPath;
 			}
 		} else{
-			if (_FILE_ARG_ != null) {
+			if (config_.file != null) {
 				// define ~ in terms of the location of the main file
-				pathName = _FILE_ARG_;
+				pathName = config_.file;
 			} 
 		}
 		if (pathName != null) {
@@ -712,6 +1753,19 @@ public class IAT extends EmbeddableAmbientTalk {
 	}
 	
 	public IATIO getIatio(){return iatio_;}
+	
+	/**
+	 * @return the value of a numeric property in iat.props, or the default value if the
+	 * property is absent or malformed.
+	 */
+	protected static int intProperty(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(_IAT_PROPS_.getProperty(key, Integer.toString(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			Logging.Init_LOG.warn("Ignoring malformed iat property " + key + ": " + e.getMessage());
+			return defaultValue;
+		}
+	}
 		
 	private void printVersion() {
 		String progname = _IAT_PROPS_.getProperty("name", "unknown program name");
@@ -721,11 +1775,89 @@ public class IAT extends EmbeddableAmbientTalk {
 	
 	private void processShellCommand(String command) {
 		if (command.equals("q") || command.equals("quit")) {
-			System.exit(0);
+			exit(0);
 		} else if (command.startsWith("l ") || command.startsWith("load ")) {
 			String fileName = command.substring(command.indexOf(" ")+1);
 			iatio_.println("Loading " + fileName);
 			loadCodeFromFile(fileName);
+		} else if (command.equals("reload")) {
+			iatio_.println("Reloading " + reloadModifiedModules() + " modified modules");
+		} else if (command.equals("more")) {
+			printMore();
+		} else if (command.equals("debug")) {
+			try {
+				Boolean attached = (Boolean) sync_performTask(new Callable<Object>() {
+					public Object call() throws Exception {
+						return Boolean.valueOf(attachDebugger());
+					}
+				});
+				iatio_.println(attached.booleanValue() ? "Attached the debugger to the evaluator actor" : "The evaluator actor is debuggable already");
+			} catch (XParseError e) {
+				handleParseError(null, e);
+			} catch (InterpreterException e) {
+				handleATException(null, e);
+			} catch (Exception e) {
+				abort("Unexpected exception: " + e.getMessage(), e);
+			}
+		} else if (command.equals("cluster")) {
+			if (cluster_ == null) {
+				iatio_.println("Not running in cluster mode, use --Xcluster N");
+			} else {
+				iatio_.print(cluster_.describeCounters());
+			}
+		} else if (command.startsWith("on ")) {
+			// :on N code evaluates code on node N of the cluster
+			String[] parts = command.substring(3).trim().split(" ", 2);
+			try {
+				int node = Integer.parseInt(parts[0]);
+				if (parts.length < 2) {
+					iatio_.println("Usage: :on node code");
+				} else if (node == 0) {
+					evalAndPrint(parts[1]);
+				} else if (cluster_ == null || node < 0 || node > cluster_.size()) {
+					iatio_.println("Unknown cluster node: " + node);
+				} else {
+					// posted code is subject to the link model, its value is printed once it arrives
+					cluster_.post(node - 1, parts[1], clusterOutput_);
+				}
+			} catch (NumberFormatException e) {
+				iatio_.println("Usage: :on node code");
+			}
+		} else if (command.equals("jobs")) {
+			List<String> jobs = describeJobs();
+			for (String job : jobs) {
+				iatio_.println(job);
+			}
+			iatio_.println(jobs.size() + " outstanding jobs");
+		} else if (command.equals("wait") || command.startsWith("wait ")) {
+			// :wait N waits for job N, :wait waits for all outstanding jobs
+			try {
+				int sequence = command.equals("wait") ? -1 : Integer.parseInt(command.substring(5).trim());
+				if (!awaitJob(sequence)) {
+					iatio_.println(sequence < 0 ? "No outstanding jobs" : "No outstanding job " + sequence);
+				}
+			} catch (NumberFormatException e) {
+				iatio_.println("Usage: :wait [job]");
+			} catch (InterruptedException e) {
+				iatio_.println("Interrupted while waiting");
+			}
+		} else if (command.equals("heap") || command.startsWith("heap ")) {
+			// :heap N prints the N actors that retain the most memory
+			try {
+				int top = command.equals("heap") ? 10 : Integer.parseInt(command.substring(5).trim());
+				iatio_.print(ActorRegistry.toTable(actors_.measure(top)));
+				iatio_.println(actors_.size() + " live actors, " +
+						(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / (1024 * 1024) + " MiB of heap in use");
+			} catch (NumberFormatException e) {
+				iatio_.println("Usage: :heap [n]");
+			}
+		} else if (command.equals("errors")) {
+			printUnreportedExceptions(exceptions_.drainUnreported());
+			Map<String, Long> counts = getExceptionCounts();
+			for (Map.Entry<String, Long> entry : counts.entrySet()) {
+				iatio_.println(entry.getValue() + "\t" + entry.getKey().replace("\n", "\n\t"));
+			}
+			iatio_.println(counts.size() + " distinct exceptions");
 		} else {
 			iatio_.println("Unknown command: " + command);
 		}
@@ -761,14 +1893,14 @@ public class IAT extends EmbeddableAmbientTalk {
 	 * transforming the object root.
 	 * 
 	 */
-	protected static void computeLogProperties() {
+	protected static void computeLogProperties(String logLevels) {
 		
 		// force the loading of the Logging class so that the default logs are initialized before the changes.
 		Logging var = new Logging();
 
 		// This code works similar to EmbeddabeAmbientTalk.computeObjectPath to extract the key=value pairs.
 		// We need to update both codes if changes required.
-		String[] logProps = _LOG_LEVEL_ARG_.split(pathSeparatorRegExp);
+		String[] logProps = logLevels.split(pathSeparatorRegExp);
 		for (int i = 0; i < logProps.length; i++) {
 			if (logProps[i].length()==0) {
 				continue; // skip empty entries
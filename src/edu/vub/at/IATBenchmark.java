@@ -0,0 +1,214 @@
+/**
+ * AmbientTalk/2 Project
+ * IATBenchmark.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * IATBenchmark holds the measurements of a benchmark run by <tt>iat --bench</tt> and reports them.
+ * A benchmark repeatedly performs a single operation (evaluating a script or applying a closure)
+ * in the evaluator actor: every fork first performs a number of warmup operations, which are not
+ * measured, followed by a number of measured operations. Each measured operation records its
+ * duration and the number of bytes allocated by the evaluator actor's thread while performing it.
+ * <p>
+ * Results can be reported as a table or as JSON, for regression tracking.
+ */
+public final class IATBenchmark {
+
+	private static final ThreadMXBean _THREADS_ = ManagementFactory.getThreadMXBean();
+
+	private final String name_;
+	private final List<long[]> forks_ = new ArrayList<long[]>();
+	private long allocatedBytes_ = 0;
+	private boolean allocationMeasured_ = true;
+	private long[] sorted_ = null;
+
+	public IATBenchmark(String name) {
+		name_ = name;
+	}
+
+	public String getName() {
+		return name_;
+	}
+
+	/**
+	 * Performs one fork of the benchmark. Must be invoked by the thread that performs the operations,
+	 * as allocation is measured per thread.
+	 *
+	 * @param operation the measured operation
+	 * @param warmup the number of operations performed before measuring
+	 * @param iterations the number of measured operations
+	 */
+	public void runFork(Operation operation, int warmup, int iterations) throws Exception {
+		for (int i = 0; i < warmup; i++) {
+			operation.perform();
+		}
+		long[] durations = new long[iterations];
+		long allocatedBefore = allocatedBytes();
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			operation.perform();
+			durations[i] = System.nanoTime() - start;
+		}
+		long allocatedAfter = allocatedBytes();
+		synchronized (this) {
+			if (allocatedBefore < 0 || allocatedAfter < 0) {
+				allocationMeasured_ = false;
+			} else {
+				allocatedBytes_ += allocatedAfter - allocatedBefore;
+			}
+			forks_.add(durations);
+			sorted_ = null;
+		}
+	}
+
+	/**
+	 * A benchmarked operation.
+	 */
+	public interface Operation {
+		public void perform() throws Exception;
+	}
+
+	/** @return the total number of measured operations */
+	public synchronized int getOperationCount() {
+		return samples().length;
+	}
+
+	/** @return the mean duration of an operation in nanoseconds */
+	public synchronized double getMean() {
+		long[] samples = samples();
+		if (samples.length == 0) {
+			return 0;
+		}
+		double total = 0;
+		for (int i = 0; i < samples.length; i++) {
+			total += samples[i];
+		}
+		return total / samples.length;
+	}
+
+	/**
+	 * @param percentile a number between 0 and 100
+	 * @return the duration (in nanoseconds) below which the given percentage of operations completed
+	 */
+	public synchronized long getPercentile(double percentile) {
+		long[] samples = samples();
+		if (samples.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+		return samples[Math.max(0, Math.min(index, samples.length - 1))];
+	}
+
+	/** @return the number of operations per second, based on the mean duration */
+	public double getThroughput() {
+		double mean = getMean();
+		return (mean == 0) ? 0 : 1e9 / mean;
+	}
+
+	/** @return the mean number of bytes allocated per operation, or -1 if the JVM cannot measure allocation */
+	public synchronized double getAllocationPerOperation() {
+		int operations = samples().length;
+		if (!allocationMeasured_ || operations == 0) {
+			return -1;
+		}
+		return (double) allocatedBytes_ / operations;
+	}
+
+	/**
+	 * @return a table with one row per benchmark
+	 */
+	public static String toTable(List<IATBenchmark> benchmarks) {
+		StringBuffer table = new StringBuffer();
+		table.append(String.format(Locale.ROOT, "%-24s %8s %12s %12s %12s %12s %14s %12s%n",
+				"Benchmark", "Ops", "Mean(us)", "p50(us)", "p90(us)", "p99(us)", "Ops/s", "B/op"));
+		for (IATBenchmark b : benchmarks) {
+			table.append(String.format(Locale.ROOT, "%-24s %8d %12.3f %12.3f %12.3f %12.3f %14.1f %12.1f%n",
+					b.getName(), b.getOperationCount(), b.getMean() / 1e3,
+					b.getPercentile(50) / 1e3, b.getPercentile(90) / 1e3, b.getPercentile(99) / 1e3,
+					b.getThroughput(), b.getAllocationPerOperation()));
+		}
+		return table.toString();
+	}
+
+	/**
+	 * @return a JSON array with one object per benchmark, durations are expressed in nanoseconds
+	 */
+	public static String toJSON(List<IATBenchmark> benchmarks) {
+		StringBuffer json = new StringBuffer("[");
+		for (int i = 0; i < benchmarks.size(); i++) {
+			IATBenchmark b = benchmarks.get(i);
+			if (i > 0) {
+				json.append(",");
+			}
+			json.append(String.format(Locale.ROOT,
+					"\n  {\"name\": %s, \"forks\": %d, \"operations\": %d, \"mean_ns\": %.1f, \"p50_ns\": %d, " +
+					"\"p90_ns\": %d, \"p99_ns\": %d, \"ops_per_s\": %.3f, \"bytes_per_op\": %.1f}",
+					JSON.quote(b.getName()), b.forks_.size(), b.getOperationCount(), b.getMean(),
+					b.getPercentile(50), b.getPercentile(90), b.getPercentile(99),
+					b.getThroughput(), b.getAllocationPerOperation()));
+		}
+		return json.append("\n]\n").toString();
+	}
+
+	private long[] samples() {
+		if (sorted_ == null) {
+			int count = 0;
+			for (long[] fork : forks_) {
+				count += fork.length;
+			}
+			sorted_ = new long[count];
+			int offset = 0;
+			for (long[] fork : forks_) {
+				System.arraycopy(fork, 0, sorted_, offset, fork.length);
+				offset += fork.length;
+			}
+			Arrays.sort(sorted_);
+		}
+		return sorted_;
+	}
+
+	/**
+	 * @return the number of bytes allocated so far by the current thread, or -1 if not supported
+	 */
+	private static long allocatedBytes() {
+		if (_THREADS_ instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) _THREADS_;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,183 @@
+/**
+ * AmbientTalk/2 Project
+ * IATConfiguration.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import gnu.getopt.Getopt;
+import gnu.getopt.LongOpt;
+
+/**
+ * An IATConfiguration holds the settings of a single iat shell: the command-line arguments it was
+ * started with and the prompts it uses. Every {@link IAT} instance has its own configuration, such
+ * that multiple independent shells can be hosted within one JVM.
+ * <p>
+ * A configuration is usually obtained by parsing command-line arguments using {@link #fromArguments(String[])},
+ * but embedders may also create a default configuration and assign its fields directly.
+ */
+public class IATConfiguration {
+
+	// program arguments
+	public String file = null;
+	public String[] arguments = new String[0];
+
+	public String init = null;
+	public String objectPath = null;
+	public String eval = null;
+	public String networkName = null;
+	public String ipAddress = null;
+	public String logLevel = null;
+
+	public boolean print = false;
+	public boolean help = false;
+	public boolean version = false;
+	public boolean quiet = false;
+	public boolean noJline = false;
+	public boolean debug = false;
+	public int cluster = 0;
+	public boolean watch = false;
+	public boolean framed = false;
+	public boolean pipeline = false;
+	public String record = null;
+	public String replay = null;
+
+	// benchmark mode (--bench), the defaults are taken from iat.props
+	public boolean bench = false;
+	public String benchFunctions = null;
+	public String benchJson = null;
+	public int benchWarmup = IAT.intProperty("benchwarmup", 10);
+	public int benchIterations = IAT.intProperty("benchiterations", 100);
+	public int benchForks = IAT.intProperty("benchforks", 3);
+
+	// prompts, which default to the values in iat.props
+	public String inputPrompt = IAT._IAT_PROPS_.getProperty("inputprompt", ">");
+	public String outputPrompt = IAT._IAT_PROPS_.getProperty("outputprompt", ">>");
+	public String readPrompt = IAT._IAT_PROPS_.getProperty("readprompt", "<<");
+	public String continuationPrompt = IAT._IAT_PROPS_.getProperty("continuationprompt", ".");
+
+	/**
+	 * Whether quitting the shell (or aborting it because of a fatal error) exits the JVM. Embedders
+	 * hosting several shells in one JVM should set this to false, in which case quitting only stops
+	 * the shell's read-eval-print loop.
+	 */
+	public boolean exitOnQuit = true;
+
+	/**
+	 * Parses the command-line arguments of iat into a new configuration.
+	 * @throws Error if the arguments contain illegal options
+	 */
+	public static IATConfiguration fromArguments(String[] args) {
+		IATConfiguration config = new IATConfiguration();
+
+		// initialize long options
+		LongOpt[] longopts = new LongOpt[] {
+			new LongOpt("init", LongOpt.REQUIRED_ARGUMENT, null, 'i'),
+			new LongOpt("objectpath", LongOpt.REQUIRED_ARGUMENT, null, 'o'),
+			new LongOpt("eval", LongOpt.REQUIRED_ARGUMENT, null, 'e'),
+			new LongOpt("print", LongOpt.NO_ARGUMENT, null, 'p'),
+			new LongOpt("network", LongOpt.REQUIRED_ARGUMENT, null, 'n'),
+			new LongOpt("help", LongOpt.NO_ARGUMENT, null, 'h'),
+			new LongOpt("version", LongOpt.NO_ARGUMENT, null, 'v'),
+			new LongOpt("quiet", LongOpt.NO_ARGUMENT, null, 'q'),
+			new LongOpt("nojline", LongOpt.NO_ARGUMENT, null, 'j'),
+			new LongOpt("ip", LongOpt.REQUIRED_ARGUMENT, null, 'a'),
+			new LongOpt("Xdebug", LongOpt.NO_ARGUMENT, null, 'd'),
+			new LongOpt("log", LongOpt.REQUIRED_ARGUMENT, null, 'l'),
+			new LongOpt("Xcluster", LongOpt.REQUIRED_ARGUMENT, null, 'C'),
+			new LongOpt("bench", LongOpt.NO_ARGUMENT, null, 'B'),
+			new LongOpt("benchfn", LongOpt.REQUIRED_ARGUMENT, null, 'N'),
+			new LongOpt("warmup", LongOpt.REQUIRED_ARGUMENT, null, 'W'),
+			new LongOpt("iterations", LongOpt.REQUIRED_ARGUMENT, null, 'I'),
+			new LongOpt("forks", LongOpt.REQUIRED_ARGUMENT, null, 'F'),
+			new LongOpt("json", LongOpt.REQUIRED_ARGUMENT, null, 'J'),
+			new LongOpt("watch", LongOpt.NO_ARGUMENT, null, 'w'),
+			new LongOpt("framed", LongOpt.NO_ARGUMENT, null, 'f'),
+			new LongOpt("record", LongOpt.REQUIRED_ARGUMENT, null, 'R'),
+			new LongOpt("replay", LongOpt.REQUIRED_ARGUMENT, null, 'P'),
+			new LongOpt("pipeline", LongOpt.NO_ARGUMENT, null, 'L')
+		};
+
+		Getopt g = new Getopt(IAT._EXEC_NAME_, args, "i:o:e:n:a:l:phvqjd:", longopts, true);
+
+		int c;
+		while ((c = g.getopt()) != -1) {
+		     switch(c) {
+		          case 'i': config.init = g.getOptarg(); break;
+		          case 'o': config.objectPath = g.getOptarg(); break;
+		          case 'e': config.eval = g.getOptarg(); break;
+		          case 'n': config.networkName = g.getOptarg(); break;
+		          case 'p': config.print = true; break;
+		          case 'h': config.help = true; break;
+		          case 'v': config.version = true; break;
+		          case 'q': config.quiet = true; break;
+		          case 'j': config.noJline = true;break;
+		          case 'a': config.ipAddress = g.getOptarg(); break;
+		          case 'd': config.debug = true;break;
+		          case 'l': config.logLevel = g.getOptarg(); break;
+		          case 'C': config.cluster = parseCount("--Xcluster", g.getOptarg()); break;
+		          case 'B': config.bench = true; break;
+		          case 'N': config.benchFunctions = g.getOptarg(); break;
+		          case 'W': config.benchWarmup = parseCount("--warmup", g.getOptarg()); break;
+		          case 'I': config.benchIterations = parseCount("--iterations", g.getOptarg()); break;
+		          case 'F': config.benchForks = parseCount("--forks", g.getOptarg()); break;
+		          case 'J': config.benchJson = g.getOptarg(); break;
+		          case 'w': config.watch = true; break;
+		          case 'f': config.framed = true; config.quiet = true; break; // frames carry no prompts
+		          case 'R': config.record = g.getOptarg(); break;
+		          case 'P': config.replay = g.getOptarg(); break;
+		          case 'L': config.pipeline = true; break;
+		          case '?':
+		        	   // getopt() already printed an error
+		        	   throw new Error("There were illegal options, quittING.");
+		          default:
+		            System.err.print("getopt() returned " + c + "\n");
+		       }
+		}
+		int firstNonOptionArgumentIdx = g.getOptind();
+		if (firstNonOptionArgumentIdx < args.length) {
+			// a file name to load was passed
+			config.file = args[firstNonOptionArgumentIdx++];
+		}
+		config.arguments = new String[args.length - firstNonOptionArgumentIdx];
+		for (int i = 0; i < config.arguments.length ; i++) {
+			config.arguments[i] = args[i + firstNonOptionArgumentIdx];
+		}
+		return config;
+	}
+
+	private static int parseCount(String option, String value) {
+		try {
+			int count = Integer.parseInt(value);
+			if (count >= 0) {
+				return count;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new Error(option + " expects a non-negative number, quitting.");
+	}
+
+}
@@ -0,0 +1,231 @@
+/**
+ * AmbientTalk/2 Project
+ * IATEvents.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.nio.charset.Charset;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import edu.vub.at.actors.natives.ELActor;
+import edu.vub.at.eval.Evaluator;
+import edu.vub.at.exceptions.XParseError;
+import edu.vub.at.objects.ATAbstractGrammar;
+import edu.vub.at.objects.ATClosure;
+import edu.vub.at.objects.ATTable;
+import edu.vub.at.parser.NATParser;
+
+/**
+ * IATEvents defines the JDK Flight Recorder events emitted by the shell and the embedding layer, such that
+ * parsing, evaluation and actor callbacks show up in recordings next to GC and lock events. Every event
+ * carries the identity of the actor it concerns. Events are only filled in and committed while a recording
+ * which enables them is running, otherwise they cost next to nothing.
+ * <p>
+ * The recording profile <tt>support/ambienttalk.jfc</tt> enables all of these events, e.g.
+ * <tt>java -XX:StartFlightRecording:settings=ambienttalk.jfc ...</tt>
+ */
+public final class IATEvents {
+
+	private static final Charset _UTF8_ = Charset.forName("UTF-8");
+	
+	private IATEvents() { }
+	
+	@Name("edu.vub.at.Parse")
+	@Label("Parse")
+	@Category("AmbientTalk")
+	@Description("Parsing AmbientTalk source code into a parse tree")
+	@StackTrace(false)
+	public static final class Parse extends Event {
+		@Label("Source")
+		public String source;
+		@Label("Size")
+		@DataAmount
+		public long bytes;
+		@Label("Actor")
+		public String actor;
+		@Label("Succeeded")
+		public boolean succeeded;
+	}
+	
+	@Name("edu.vub.at.Eval")
+	@Label("Evaluation")
+	@Category("AmbientTalk")
+	@Description("Evaluation of a script handed to the evaluator actor by the shell or an embedding application")
+	@StackTrace(false)
+	public static final class Eval extends Event {
+		@Label("Kind")
+		@Description("The method through which the script was evaluated")
+		public String kind;
+		@Label("Source")
+		public String source;
+		@Label("Actor")
+		public String actor;
+		@Label("Succeeded")
+		public boolean succeeded;
+		
+		public void end(String kind, String source, boolean succeeded) {
+			if (shouldCommit()) {
+				this.kind = kind;
+				this.source = source;
+				this.actor = currentActorIdentity();
+				this.succeeded = succeeded;
+				commit();
+			}
+		}
+	}
+	
+	@Name("edu.vub.at.ReplInput")
+	@Label("REPL Input")
+	@Category("AmbientTalk")
+	@Description("Handling of a line (or multi-line input) read by the read-eval-print loop, excluding the time spent reading it")
+	@StackTrace(false)
+	public static final class ReplInput extends Event {
+		@Label("Kind")
+		@Description("command, eval or multiline")
+		public String kind;
+		@Label("Characters")
+		public long characters;
+		@Label("Actor")
+		@Description("The evaluator actor to which the input was handed")
+		public String actor;
+		
+		public void end(String kind, String input, ELActor evaluator) {
+			if (shouldCommit()) {
+				this.kind = kind;
+				this.characters = input.length();
+				this.actor = actorIdentity(evaluator);
+				commit();
+			}
+		}
+	}
+	
+	@Name("edu.vub.at.Trigger")
+	@Label("Trigger")
+	@Category("AmbientTalk")
+	@Description("A callback scheduled in an actor on behalf of the system object (e.g. readFile:, exec:, readNextLine:)")
+	@StackTrace(false)
+	public static final class Trigger extends Event {
+		@Label("Description")
+		public String description;
+		@Label("Actor")
+		public String actor;
+	}
+	
+	@Name("edu.vub.at.SoftReset")
+	@Label("Soft Reset")
+	@Category("AmbientTalk")
+	@Description("Resetting the virtual machine into a fresh start-up state")
+	@StackTrace(false)
+	public static final class SoftReset extends Event {
+		@Label("Actor")
+		@Description("The evaluator actor after the reset")
+		public String actor;
+		@Label("Succeeded")
+		public boolean succeeded;
+	}
+	
+	@Name("edu.vub.at.SharedActorFieldInit")
+	@Label("Shared Actor Field Initialization")
+	@Category("AmbientTalk")
+	@Description("Initialization of a field (e.g. lobby or system) installed in every new actor")
+	@StackTrace(false)
+	public static final class SharedActorFieldInit extends Event {
+		@Label("Field")
+		public String field;
+		@Label("Actor")
+		public String actor;
+		
+		public void end(String field) {
+			if (shouldCommit()) {
+				this.field = field;
+				this.actor = currentActorIdentity();
+				commit();
+			}
+		}
+	}
+	
+	/**
+	 * Equivalent to {@link NATParser#parse(String, String)}, emitting a {@link Parse} event.
+	 */
+	public static ATAbstractGrammar parse(String source, String code) throws XParseError {
+		Parse event = new Parse();
+		event.begin();
+		boolean succeeded = false;
+		try {
+			ATAbstractGrammar ast = NATParser.parse(source, code);
+			succeeded = true;
+			return ast;
+		} finally {
+			if (event.shouldCommit()) {
+				event.source = source;
+				event.bytes = code.getBytes(_UTF8_).length;
+				event.actor = currentActorIdentity();
+				event.succeeded = succeeded;
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Equivalent to {@link Evaluator#trigger(ELActor, ATClosure, ATTable, String)}, emitting a {@link Trigger} event.
+	 */
+	public static void trigger(ELActor owner, ATClosure closure, ATTable arguments, String description) {
+		Trigger event = new Trigger();
+		event.begin();
+		Evaluator.trigger(owner, closure, arguments, description);
+		if (event.shouldCommit()) {
+			event.description = description;
+			event.actor = actorIdentity(owner);
+			event.commit();
+		}
+	}
+	
+	/**
+	 * @return a description of the actor which distinguishes it from other actors in the same JVM
+	 */
+	public static String actorIdentity(ELActor actor) {
+		return actor + "@" + Integer.toHexString(System.identityHashCode(actor));
+	}
+	
+	/**
+	 * @return the identity of the actor executing the current thread, or null if the thread is not an actor
+	 */
+	public static String currentActorIdentity() {
+		try {
+			return actorIdentity(ELActor.currentActor());
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,288 @@
+/**
+ * AmbientTalk/2 Project
+ * IATIOFramed.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The class IATIOFramed provides input/output for tools driving iat (e.g. IDEs and test harnesses),
+ * selected using the --framed option. Rather than lines of text, the shell reads and writes frames:
+ * a 4-byte big-endian length followed by that many bytes of UTF-8 encoded JSON, which is always an
+ * object with a "type" member.
+ * <p>
+ * Frames sent to the shell:
+ * <ul>
+ *   <li><tt>{"type":"eval", "id":id, "code":text}</tt> evaluates the code. Requests may be sent without
+ *       waiting for the results of earlier requests, the id (any JSON value) is echoed in the reply.
+ *   <li><tt>{"type":"input", "text":text}</tt> provides a line of input to <tt>system.readNextLine:catch:</tt>.
+ *   <li><tt>{"type":"quit"}</tt> quits the shell. Closing the input stream quits the shell as well, but
+ *       with a non-zero exit status.
+ * </ul>
+ * A frame whose payload is not a JSON object is answered with an error frame, carrying the id of the
+ * request if it can be recognized, and the shell continues with the next frame.
+ * Frames sent by the shell:
+ * <ul>
+ *   <li><tt>{"type":"ready", "version":text}</tt> once the shell has booted.
+ *   <li><tt>{"type":"result", "id":id, "value":text}</tt> the printed value of an evaluation.
+ *   <li><tt>{"type":"error", "id":id, "message":text, "trace":text}</tt> an exception raised by an evaluation.
+ *   <li><tt>{"type":"parse-error", "id":id, "message":text, "line":n, "column":n}</tt> code that does not parse.
+ *   <li><tt>{"type":"stdout", "id":id, "text":text}</tt> text printed by AmbientTalk code, the id is the one
+ *       of the request being evaluated when the text was printed, or null if the text was printed elsewhere.
+ * </ul>
+ * Replies are written as soon as they are available, which is not necessarily in the order of the requests.
+ */
+public final class IATIOFramed extends IATIO {
+
+	/** frames larger than this size are considered corrupt */
+	public static final int _MAX_FRAME_SIZE_ = 64 * 1024 * 1024;
+	
+	private static final String _END_OF_INPUT_ = new String("end of input");
+	
+	/** recognizes the id of a request whose frame is not valid JSON */
+	private static final Pattern _REQUEST_ID_ = Pattern.compile("\"id\"\\s*:\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|-?[0-9]+)");
+	
+	/**
+	 * Signals a frame which was read completely, but whose payload is not a JSON object. The frames
+	 * which follow it can still be read.
+	 */
+	public static final class MalformedFrameException extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Object requestId_;
+		
+		MalformedFrameException(String message, Object requestId) {
+			super(message);
+			requestId_ = requestId;
+		}
+		
+		/**
+		 * @return the id of the malformed request, or null if it cannot be recognized
+		 */
+		public Object getRequestId() {
+			return requestId_;
+		}
+	}
+	
+	private final DataInputStream input_;
+	private final DataOutputStream output_;
+	private final PrintStream printStream_;
+	private final BlockingQueue<String> lines_ = new LinkedBlockingQueue<String>();
+	private final ThreadLocal<Object> currentRequest_ = new ThreadLocal<Object>();
+	
+	public IATIOFramed(InputStream in, OutputStream out) {
+		input_ = new DataInputStream(in);
+		output_ = new DataOutputStream(out);
+		// text printed on the stream is sent as a stdout frame whenever the stream is flushed
+		printStream_ = new PrintStream(new ByteArrayOutputStream() {
+			public synchronized void flush() {
+				if (size() > 0) {
+					try {
+						print(toString("UTF-8"));
+					} catch (IOException e) {
+						// UTF-8 is always supported
+					}
+					reset();
+				}
+			}
+		}, true);
+	}
+	
+	// frames
+	
+	/**
+	 * Reads the next eval or quit frame. Input frames which precede it are queued for {@link #readln()}.
+	 * @return the frame as a map of its members, or null if the input was closed
+	 * @throws MalformedFrameException if the payload of the frame is not a JSON object, reading can continue
+	 * @throws IOException if the input cannot be read or is not a sequence of frames
+	 */
+	public Map<String, Object> readRequest() throws IOException {
+		while (true) {
+			Map<String, Object> frame;
+			try {
+				frame = readFrame();
+			} catch (EOFException e) {
+				lines_.offer(_END_OF_INPUT_);
+				return null;
+			}
+			if ("input".equals(frame.get("type"))) {
+				lines_.offer(String.valueOf(frame.get("text")));
+			} else {
+				return frame;
+			}
+		}
+	}
+	
+	private Map<String, Object> readFrame() throws IOException {
+		int length = input_.readInt();
+		if (length < 0 || length > _MAX_FRAME_SIZE_) {
+			throw new IOException("illegal frame length " + length);
+		}
+		byte[] payload = new byte[length];
+		try {
+			input_.readFully(payload);
+		} catch (EOFException e) {
+			throw new IOException("input closed within a frame of length " + length);
+		}
+		String json = new String(payload, "UTF-8");
+		try {
+			return JSON.parseObject(json);
+		} catch (IllegalArgumentException e) {
+			throw new MalformedFrameException(e.getMessage(), requestIdOf(json));
+		}
+	}
+	
+	private static Object requestIdOf(String json) {
+		Matcher id = _REQUEST_ID_.matcher(json);
+		if (id.find()) {
+			try {
+				return JSON.parse(id.group(1));
+			} catch (IllegalArgumentException e) {
+				// not recognizable after all
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Writes a frame with the given type and members, which are given as alternating names and values.
+	 */
+	public void writeFrame(String type, Object... members) {
+		Map<String, Object> frame = new LinkedHashMap<String, Object>();
+		frame.put("type", type);
+		for (int i = 0; i + 1 < members.length; i += 2) {
+			frame.put((String) members[i], members[i + 1]);
+		}
+		try {
+			byte[] payload = JSON.write(frame).getBytes("UTF-8");
+			synchronized (output_) {
+				output_.writeInt(payload.length);
+				output_.write(payload);
+				output_.flush();
+			}
+		} catch (IOException e) {
+			// the tool has gone away, there is no one left to report to
+		}
+	}
+	
+	/**
+	 * Marks the request whose evaluation is performed by the current thread, such that text it prints is
+	 * attributed to that request.
+	 * @param id the id of the request, or null once its evaluation has finished
+	 */
+	public void setCurrentRequest(Object id) {
+		if (id == null) {
+			currentRequest_.remove();
+		} else {
+			currentRequest_.set(id);
+		}
+	}
+	
+	// output
+	
+	public void print(String txt) {
+		writeFrame("stdout", "id", currentRequest_.get(), "text", txt);
+	}
+
+	public void print(int nbr) {
+		print(String.valueOf(nbr));
+	}
+	
+	public void print(double frc) {
+		print(String.valueOf(frc));
+	}
+	
+	public void print(boolean bool) {
+		print(String.valueOf(bool));
+	}
+	
+	public void println(String txt) {
+		print(txt + "\n");
+	}
+
+	public void println(int nbr) {
+		println(String.valueOf(nbr));
+	}
+	
+	public void println(double frc) {
+		println(String.valueOf(frc));
+	}
+	
+	public void println(boolean bool) {
+		println(String.valueOf(bool));
+	}
+	
+	public void println() {
+		print("\n");
+	}
+	
+	// input
+	
+	/**
+	 * Prompts are not sent to the tool.
+	 * @return the text of the next input frame, or null if the input was closed
+	 */
+	public String readln(String prompt) throws IOException {
+		return readln();
+	}
+	
+	/**
+	 * @return the text of the next input frame, or null if the input was closed
+	 */
+	public String readln() throws IOException {
+		try {
+			String line = lines_.take();
+			if (line == _END_OF_INPUT_) {
+				// let later readers see the end of input as well
+				lines_.offer(_END_OF_INPUT_);
+				return null;
+			}
+			return line;
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted while waiting for input");
+		}
+	}
+
+	public PrintStream getOutput() {
+		return printStream_;
+	}
+
+}
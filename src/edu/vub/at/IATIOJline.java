@@ -50,8 +50,14 @@ public final class IATIOJline extends IATIO{
 	public static final IATIOJline _INSTANCE_ = new IATIOJline(System.in, System.out);
 	
 	private ConsoleReader console_;
+	private final PrintStream output_;
 	
-	private IATIOJline(InputStream in, PrintStream out) {
+	/**
+	 * @param in the stream from which input lines are read
+	 * @param out the stream on which output is printed
+	 */
+	public IATIOJline(InputStream in, PrintStream out) {
+		output_ = out;
 		try {
 			console_ = new ConsoleReader(in, new OutputStreamWriter(out));
 		} catch(IOException e) {
@@ -127,7 +133,7 @@ public final class IATIOJline extends IATIO{
 	}
 
 	public PrintStream getOutput() {
-		return System.out;
+		return output_;
 	}
 
 }
@@ -0,0 +1,191 @@
+/**
+ * AmbientTalk/2 Project
+ * IATIORecorder.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import edu.vub.at.util.logging.Logging;
+
+/**
+ * The class IATIORecorder decorates the i/o of a shell started with --record: it records every line
+ * read from the decorated i/o, and the output printed in response to it, in a {@link SessionLog}.
+ * Lines are classified using the prompt with which they are read: lines read with the read prompt
+ * are read on behalf of <tt>system.readNextLine:catch:</tt>, all other lines are read by the
+ * read-eval-print loop. Prompts and echoed input are not part of the recorded output.
+ */
+public final class IATIORecorder extends IATIO {
+
+	private final IATIO delegate_;
+	private final SessionLog log_;
+	private final String readPrompt_;
+	private final ByteArrayOutputStream captured_ = new ByteArrayOutputStream();
+	private final PrintStream printStream_;
+
+	/**
+	 * @param delegate the i/o that is recorded
+	 * @param log the log in which the session is recorded
+	 * @param readPrompt the prompt with which lines are read on behalf of readNextLine:catch:
+	 */
+	public IATIORecorder(IATIO delegate, SessionLog log, String readPrompt) {
+		delegate_ = delegate;
+		log_ = log;
+		readPrompt_ = readPrompt;
+		// text printed on the stream reaches both the decorated i/o and the log
+		final PrintStream output = delegate.getOutput();
+		printStream_ = new PrintStream(new OutputStream() {
+			public void write(int b) {
+				output.write(b);
+				captured_.write(b);
+			}
+			public void write(byte[] b, int off, int len) {
+				output.write(b, off, len);
+				captured_.write(b, off, len);
+			}
+			public void flush() {
+				output.flush();
+			}
+		}, true);
+	}
+
+	// output
+
+	public void print(String txt) {
+		delegate_.print(txt);
+		capture(txt);
+	}
+
+	public void print(int nbr) {
+		delegate_.print(nbr);
+		capture(String.valueOf(nbr));
+	}
+
+	public void print(double frc) {
+		delegate_.print(frc);
+		capture(String.valueOf(frc));
+	}
+
+	public void print(boolean bool) {
+		delegate_.print(bool);
+		capture(String.valueOf(bool));
+	}
+
+	public void println(String txt) {
+		delegate_.println(txt);
+		capture(txt + "\n");
+	}
+
+	public void println(int nbr) {
+		delegate_.println(nbr);
+		capture(nbr + "\n");
+	}
+
+	public void println(double frc) {
+		delegate_.println(frc);
+		capture(frc + "\n");
+	}
+
+	public void println(boolean bool) {
+		delegate_.println(bool);
+		capture(bool + "\n");
+	}
+
+	public void println() {
+		delegate_.println();
+		capture("\n");
+	}
+
+	private void capture(String txt) {
+		try {
+			captured_.write(txt.getBytes("UTF-8"));
+		} catch (IOException e) {
+			// writing to a byte array does not fail, and UTF-8 is always supported
+		}
+	}
+
+	// input
+
+	public String readln(String prompt) throws IOException {
+		boolean readline = readPrompt_.equals(prompt);
+		endExchange();
+		return record(delegate_.readln(prompt), readline);
+	}
+
+	public String readln() throws IOException {
+		endExchange();
+		return record(delegate_.readln(), false);
+	}
+
+	/**
+	 * Logs the output printed since the previous line was read, as the shell is about to read its next line.
+	 */
+	private void endExchange() {
+		String output;
+		synchronized (captured_) {
+			try {
+				output = captured_.toString("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				output = captured_.toString();
+			}
+			captured_.reset();
+		}
+		append(SessionLog._OUTPUT_, output);
+	}
+
+	private String record(String line, boolean readline) {
+		if (line == null) {
+			try {
+				log_.close();
+			} catch (IOException e) {
+				Logging.Init_LOG.error("Error while closing the session log: " + e.getMessage(), e);
+			}
+		} else if (readline) {
+			append(SessionLog._READLINE_, line);
+		} else {
+			append(line.startsWith(":") ? SessionLog._COMMAND_ : SessionLog._INPUT_, line);
+		}
+		return line;
+	}
+
+	private void append(String kind, String text) {
+		try {
+			log_.append(kind, text);
+		} catch (IOException e) {
+			// a broken log should not break the session being recorded
+			Logging.Init_LOG.error("Error while recording the session: " + e.getMessage(), e);
+		}
+	}
+
+	public PrintStream getOutput() {
+		return printStream_;
+	}
+
+}
@@ -0,0 +1,269 @@
+/**
+ * AmbientTalk/2 Project
+ * IATIOReplay.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The class IATIOReplay re-drives a session recorded in a {@link SessionLog} (selected using --replay).
+ * It provides the recorded lines to the shell as fast as the shell reads them, and captures the output
+ * printed in response to every line rather than printing it. Once all recorded lines were read (or the
+ * recorded session quits the shell), reading returns end-of-file and {@link #report()} compares the
+ * replayed session with the recorded one.
+ * <p>
+ * The latency of a replayed line is the time between reading it and reading the next one, which is
+ * also how it was recorded. As the recorded think time of the user is not replayed, output printed
+ * asynchronously (e.g. when a future resolves) may be attributed to a different line than in the
+ * recorded session.
+ */
+public final class IATIOReplay extends IATIO {
+
+	/**
+	 * The outcome of replaying a recorded exchange.
+	 */
+	public static final class Result {
+		public final SessionLog.Exchange recorded;
+		public final String output;
+		public final long latencyMicros;
+		/** whether the shell read the line the way it was recorded (by the REPL or by readNextLine:catch:) */
+		public final boolean readAsRecorded;
+
+		private Result(SessionLog.Exchange recorded, String output, long latencyMicros, boolean readAsRecorded) {
+			this.recorded = recorded;
+			this.output = output;
+			this.latencyMicros = latencyMicros;
+			this.readAsRecorded = readAsRecorded;
+		}
+
+		public boolean isDifferent() {
+			return !readAsRecorded || !output.equals(recorded.output);
+		}
+	}
+
+	private final List<SessionLog.Exchange> session_;
+	private final String readPrompt_;
+	private final List<Result> results_ = new ArrayList<Result>();
+	private final ByteArrayOutputStream captured_ = new ByteArrayOutputStream();
+	private final PrintStream printStream_ = new PrintStream(captured_, true);
+	private int position_ = 0;
+	private boolean readAsRecorded_ = true;
+	private long started_ = System.nanoTime();
+	private boolean finished_ = false;
+
+	/**
+	 * @param session the recorded session, of which the first exchange is the start of the session
+	 * @param readPrompt the prompt with which lines are read on behalf of readNextLine:catch:
+	 */
+	public IATIOReplay(List<SessionLog.Exchange> session, String readPrompt) {
+		session_ = session;
+		readPrompt_ = readPrompt;
+	}
+
+	// output
+
+	public void print(String txt) {
+		try {
+			captured_.write(txt.getBytes("UTF-8"));
+		} catch (IOException e) {
+			// writing to a byte array does not fail, and UTF-8 is always supported
+		}
+	}
+
+	public void print(int nbr) {
+		print(String.valueOf(nbr));
+	}
+
+	public void print(double frc) {
+		print(String.valueOf(frc));
+	}
+
+	public void print(boolean bool) {
+		print(String.valueOf(bool));
+	}
+
+	public void println(String txt) {
+		print(txt + "\n");
+	}
+
+	public void println(int nbr) {
+		println(String.valueOf(nbr));
+	}
+
+	public void println(double frc) {
+		println(String.valueOf(frc));
+	}
+
+	public void println(boolean bool) {
+		println(String.valueOf(bool));
+	}
+
+	public void println() {
+		print("\n");
+	}
+
+	// input
+
+	public String readln(String prompt) throws IOException {
+		return next(readPrompt_.equals(prompt));
+	}
+
+	public String readln() throws IOException {
+		return next(false);
+	}
+
+	/**
+	 * Ends the exchange being replayed and provides the line of the next one.
+	 * @param readline whether the line is read on behalf of readNextLine:catch:
+	 * @return the next recorded line, or null at the end of the session
+	 */
+	private synchronized String next(boolean readline) {
+		if (finished_) {
+			return null;
+		}
+		long latency = (System.nanoTime() - started_) / 1000;
+		String output;
+		synchronized (captured_) {
+			try {
+				output = captured_.toString("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				output = captured_.toString();
+			}
+			captured_.reset();
+		}
+		results_.add(new Result(session_.get(position_), output, latency, readAsRecorded_));
+		position_++;
+		if (position_ >= session_.size() || isQuit(session_.get(position_))) {
+			// quitting would exit before the replay is reported
+			finished_ = true;
+			notifyAll();
+			return null;
+		}
+		SessionLog.Exchange exchange = session_.get(position_);
+		readAsRecorded_ = readline == SessionLog._READLINE_.equals(exchange.kind);
+		started_ = System.nanoTime();
+		return exchange.text;
+	}
+
+	private static boolean isQuit(SessionLog.Exchange exchange) {
+		return SessionLog._COMMAND_.equals(exchange.kind) &&
+		       (exchange.text.trim().equals(":q") || exchange.text.trim().equals(":quit"));
+	}
+
+	/**
+	 * Waits until all recorded lines were read.
+	 */
+	public synchronized void awaitEnd() throws InterruptedException {
+		while (!finished_) {
+			wait();
+		}
+	}
+
+	/** @return the outcome of every exchange replayed so far */
+	public synchronized List<Result> getResults() {
+		return new ArrayList<Result>(results_);
+	}
+
+	/** @return whether any exchange replayed so far differs from the recorded one */
+	public synchronized boolean hasDifferences() {
+		for (Result result : results_) {
+			if (result.isDifferent()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return a table listing the recorded and replayed latency of every exchange, followed by the
+	 * recorded and replayed output of the exchanges that differ.
+	 */
+	public synchronized String report() {
+		StringBuffer report = new StringBuffer();
+		report.append(String.format(Locale.ROOT, "%5s %-9s %13s %13s %-5s %s%n",
+				"#", "Kind", "Recorded(ms)", "Replayed(ms)", "", "Line"));
+		long recordedTotal = 0;
+		long replayedTotal = 0;
+		int differences = 0;
+		for (int i = 0; i < results_.size(); i++) {
+			Result result = results_.get(i);
+			report.append(String.format(Locale.ROOT, "%5d %-9s %13s %13s %-5s %s%n",
+					i, result.recorded.kind, milliseconds(result.recorded.latencyMicros),
+					milliseconds(result.latencyMicros), result.isDifferent() ? "DIFF" : "ok",
+					abbreviate(result.recorded.text)));
+			if (result.recorded.latencyMicros >= 0) {
+				recordedTotal += result.recorded.latencyMicros;
+				replayedTotal += result.latencyMicros;
+			}
+			if (result.isDifferent()) {
+				differences++;
+			}
+		}
+		for (int i = 0; i < results_.size(); i++) {
+			Result result = results_.get(i);
+			if (!result.readAsRecorded) {
+				report.append("--- #").append(i).append(" was recorded as ").append(result.recorded.kind)
+				      .append(" but read by ").append(SessionLog._READLINE_.equals(result.recorded.kind) ? "the REPL" : "readNextLine")
+				      .append('\n');
+			}
+			if (!result.output.equals(result.recorded.output)) {
+				appendOutput(report.append("--- recorded output of #").append(i).append('\n'), result.recorded.output);
+				appendOutput(report.append("+++ replayed output of #").append(i).append('\n'), result.output);
+			}
+		}
+		report.append(String.format(Locale.ROOT, "%d exchanges replayed, %d different, recorded %s ms, replayed %s ms%n",
+				results_.size(), differences, milliseconds(recordedTotal), milliseconds(replayedTotal)));
+		return report.toString();
+	}
+
+	private static void appendOutput(StringBuffer report, String output) {
+		report.append(output);
+		if (!output.isEmpty() && !output.endsWith("\n")) {
+			report.append('\n');
+		}
+	}
+
+	private static String milliseconds(long micros) {
+		return (micros < 0) ? "-" : String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+	}
+
+	private static String abbreviate(String line) {
+		String abbreviated = line.replace('\n', ' ');
+		return (abbreviated.length() > 40) ? abbreviated.substring(0, 37) + "..." : abbreviated;
+	}
+
+	public PrintStream getOutput() {
+		return printStream_;
+	}
+
+}
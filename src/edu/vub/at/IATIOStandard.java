@@ -35,16 +35,37 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 
+/**
+ * The class IATIOStandard provides input/output for IAT on top of arbitrary byte streams,
+ * without command-line editing. The {@link #_INSTANCE_} operates on the console of the JVM,
+ * shells hosted on other streams (e.g. sockets) create their own instance.
+ */
 public final class IATIOStandard extends IATIO {
 
-	public static final IATIOStandard _INSTANCE_ = new IATIOStandard(System.in, System.out);
+	public static final IATIOStandard _INSTANCE_ = new IATIOStandard(System.in, System.out, true);
 	
 	private final BufferedReader input_;
 	private final PrintWriter output_;
+	private final PrintStream printStream_;
+	private volatile boolean echo_;
 	
-	private IATIOStandard(InputStream in, OutputStream out) {
+	/**
+	 * @param in the stream from which input lines are read
+	 * @param out the stream on which output is printed
+	 * @param echo whether lines read from the input are echoed onto the output
+	 */
+	public IATIOStandard(InputStream in, OutputStream out, boolean echo) {
 		input_ = new BufferedReader(new InputStreamReader(in));
-		output_ = new PrintWriter(System.out, true);
+		printStream_ = (out instanceof PrintStream) ? (PrintStream) out : new PrintStream(out, true);
+		output_ = new PrintWriter(printStream_, true);
+		echo_ = echo;
+	}
+	
+	/**
+	 * Determines whether lines read from the input are echoed onto the output (they are not echoed in quiet mode).
+	 */
+	public void setEcho(boolean echo) {
+		echo_ = echo;
 	}
 	
 	// output
@@ -110,7 +131,7 @@ public final class IATIOStandard extends IATIO {
 				inputBuffer.append(input_.readLine());
 			}
 			String read = inputBuffer.toString();
-			if (!IAT._QUIET_ARG_) {
+			if (echo_) {
 				output_.println(read);
 			}
 			return read;
@@ -121,8 +142,7 @@ public final class IATIOStandard extends IATIO {
 
 	@Override
 	public PrintStream getOutput() {
-		// TODO Auto-generated method stub
-		return System.out;
+		return printStream_;
 	}
 
 }
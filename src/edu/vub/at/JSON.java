@@ -0,0 +1,329 @@
+/**
+ * AmbientTalk/2 Project
+ * JSON.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON reader and writer, used by the shell to exchange structured data with tools
+ * (benchmark reports and the framed protocol of {@link IATIOFramed}).
+ * <p>
+ * JSON values are represented as follows: objects as {@link Map}s (preserving the order of their members),
+ * arrays as {@link List}s, strings as {@link String}s, integral numbers as {@link Long}s (or as
+ * {@link BigDecimal}s if they do not fit in a long), other numbers as {@link Double}s, booleans as
+ * {@link Boolean}s and null as <tt>null</tt>. JSON cannot represent NaN and infinite numbers, they
+ * are written as <tt>null</tt>.
+ */
+public final class JSON {
+
+	private JSON() { }
+	
+	/**
+	 * @return the JSON representation of the given value, which should be composed of the types listed above
+	 * (any other object is written as the string returned by its toString method)
+	 */
+	public static String write(Object value) {
+		StringBuffer json = new StringBuffer();
+		write(value, json);
+		return json.toString();
+	}
+	
+	/**
+	 * @return the given text as a JSON string literal
+	 */
+	public static String quote(String text) {
+		StringBuffer quoted = new StringBuffer(text.length() + 2);
+		quote(text, quoted);
+		return quoted.toString();
+	}
+	
+	/**
+	 * @return the value represented by the given JSON text
+	 * @throws IllegalArgumentException if the text is not valid JSON
+	 */
+	public static Object parse(String json) {
+		Reader reader = new Reader(json);
+		Object value = reader.readValue();
+		reader.skipWhitespace();
+		if (reader.position_ < json.length()) {
+			throw reader.error("unexpected trailing characters");
+		}
+		return value;
+	}
+	
+	/**
+	 * @return the object represented by the given JSON text
+	 * @throws IllegalArgumentException if the text is not valid JSON or does not represent a JSON object
+	 */
+	public static Map<String, Object> parseObject(String json) {
+		Reader reader = new Reader(json);
+		reader.skipWhitespace();
+		if (reader.position_ >= json.length() || json.charAt(reader.position_) != '{') {
+			throw reader.error("expected a JSON object");
+		}
+		Map<String, Object> object = reader.readObject();
+		reader.skipWhitespace();
+		if (reader.position_ < json.length()) {
+			throw reader.error("unexpected trailing characters");
+		}
+		return object;
+	}
+	
+	private static void write(Object value, StringBuffer json) {
+		if (value == null) {
+			json.append("null");
+		} else if (value instanceof Map) {
+			json.append('{');
+			for (Iterator<? extends Map.Entry<?, ?>> it = ((Map<?, ?>) value).entrySet().iterator(); it.hasNext();) {
+				Map.Entry<?, ?> member = it.next();
+				quote(String.valueOf(member.getKey()), json);
+				json.append(':');
+				write(member.getValue(), json);
+				if (it.hasNext()) {
+					json.append(',');
+				}
+			}
+			json.append('}');
+		} else if (value instanceof List) {
+			json.append('[');
+			for (Iterator<?> it = ((List<?>) value).iterator(); it.hasNext();) {
+				write(it.next(), json);
+				if (it.hasNext()) {
+					json.append(',');
+				}
+			}
+			json.append(']');
+		} else if (value instanceof Double || value instanceof Float) {
+			double number = ((Number) value).doubleValue();
+			json.append(Double.isNaN(number) || Double.isInfinite(number) ? "null" : value.toString());
+		} else if (value instanceof Number || value instanceof Boolean) {
+			json.append(value);
+		} else {
+			quote(value.toString(), json);
+		}
+	}
+	
+	private static void quote(String text, StringBuffer quoted) {
+		quoted.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '"': quoted.append("\\\""); break;
+				case '\\': quoted.append("\\\\"); break;
+				case '\n': quoted.append("\\n"); break;
+				case '\r': quoted.append("\\r"); break;
+				case '\t': quoted.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						quoted.append(String.format("\\u%04x", Integer.valueOf(c)));
+					} else {
+						quoted.append(c);
+					}
+			}
+		}
+		quoted.append('"');
+	}
+	
+	private static final class Reader {
+		
+		private final String json_;
+		private int position_ = 0;
+		
+		Reader(String json) {
+			json_ = json;
+		}
+		
+		Object readValue() {
+			skipWhitespace();
+			if (position_ >= json_.length()) {
+				throw error("unexpected end of input");
+			}
+			char c = json_.charAt(position_);
+			switch (c) {
+				case '{': return readObject();
+				case '[': return readArray();
+				case '"': return readString();
+				case 't': expect("true"); return Boolean.TRUE;
+				case 'f': expect("false"); return Boolean.FALSE;
+				case 'n': expect("null"); return null;
+				default:
+					if (c == '-' || (c >= '0' && c <= '9')) {
+						return readNumber();
+					}
+					throw error("unexpected character '" + c + "'");
+			}
+		}
+		
+		private Map<String, Object> readObject() {
+			Map<String, Object> object = new LinkedHashMap<String, Object>();
+			position_++; // {
+			skipWhitespace();
+			if (peek() == '}') {
+				position_++;
+				return object;
+			}
+			while (true) {
+				skipWhitespace();
+				if (peek() != '"') {
+					throw error("expected a member name");
+				}
+				String name = readString();
+				skipWhitespace();
+				expect(":");
+				object.put(name, readValue());
+				skipWhitespace();
+				char c = next();
+				if (c == '}') {
+					return object;
+				} else if (c != ',') {
+					throw error("expected ',' or '}'");
+				}
+			}
+		}
+		
+		private List<Object> readArray() {
+			List<Object> array = new ArrayList<Object>();
+			position_++; // [
+			skipWhitespace();
+			if (peek() == ']') {
+				position_++;
+				return array;
+			}
+			while (true) {
+				array.add(readValue());
+				skipWhitespace();
+				char c = next();
+				if (c == ']') {
+					return array;
+				} else if (c != ',') {
+					throw error("expected ',' or ']'");
+				}
+			}
+		}
+		
+		private String readString() {
+			StringBuffer text = new StringBuffer();
+			position_++; // "
+			while (true) {
+				char c = next();
+				if (c == '"') {
+					return text.toString();
+				} else if (c != '\\') {
+					text.append(c);
+					continue;
+				}
+				c = next();
+				switch (c) {
+					case '"': case '\\': case '/': text.append(c); break;
+					case 'b': text.append('\b'); break;
+					case 'f': text.append('\f'); break;
+					case 'n': text.append('\n'); break;
+					case 'r': text.append('\r'); break;
+					case 't': text.append('\t'); break;
+					case 'u':
+						if (position_ + 4 > json_.length()) {
+							throw error("unexpected end of input");
+						}
+						try {
+							text.append((char) Integer.parseInt(json_.substring(position_, position_ + 4), 16));
+						} catch (NumberFormatException e) {
+							throw error("malformed unicode escape");
+						}
+						position_ += 4;
+						break;
+					default:
+						throw error("illegal escape '\\" + c + "'");
+				}
+			}
+		}
+		
+		private Number readNumber() {
+			int start = position_;
+			boolean integral = true;
+			while (position_ < json_.length()) {
+				char c = json_.charAt(position_);
+				if (c == '.' || c == 'e' || c == 'E') {
+					integral = false;
+				} else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+					break;
+				}
+				position_++;
+			}
+			String number = json_.substring(start, position_);
+			try {
+				if (!integral) {
+					return Double.valueOf(number);
+				}
+				try {
+					return Long.valueOf(number);
+				} catch (NumberFormatException e) {
+					// out of the range of a long, kept exact
+					return new BigDecimal(number);
+				}
+			} catch (NumberFormatException e) {
+				throw error("malformed number " + number);
+			}
+		}
+		
+		private void expect(String token) {
+			if (!json_.startsWith(token, position_)) {
+				throw error("expected " + token);
+			}
+			position_ += token.length();
+		}
+		
+		private char peek() {
+			if (position_ >= json_.length()) {
+				throw error("unexpected end of input");
+			}
+			return json_.charAt(position_);
+		}
+		
+		private char next() {
+			char c = peek();
+			position_++;
+			return c;
+		}
+		
+		void skipWhitespace() {
+			while (position_ < json_.length() && Character.isWhitespace(json_.charAt(position_))) {
+				position_++;
+			}
+		}
+		
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("malformed JSON at position " + position_ + ": " + message);
+		}
+	}
+
+}
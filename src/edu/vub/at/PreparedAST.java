@@ -0,0 +1,65 @@
+/**
+ * AmbientTalk/2 Project
+ * PreparedAST.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import edu.vub.at.exceptions.XParseError;
+import edu.vub.at.objects.ATAbstractGrammar;
+
+/**
+ * A PreparedAST is a script that was parsed ahead of its evaluation, such that it can be evaluated
+ * (repeatedly) without parsing it again, e.g. using {@link EmbeddableAmbientTalk#evalPreparedBatch(java.util.List)}.
+ * Parse trees are immutable, so a prepared script may be evaluated by any actor.
+ */
+public final class PreparedAST {
+
+	private final String script_;
+	private final ATAbstractGrammar ast_;
+	
+	public PreparedAST(String script, ATAbstractGrammar ast) {
+		script_ = script;
+		ast_ = ast;
+	}
+	
+	/**
+	 * Parses the given script.
+	 * @param source a description of where the script stems from, used in error messages
+	 * @throws XParseError if the script does not parse
+	 */
+	public static PreparedAST prepare(String source, String script) throws XParseError {
+		return new PreparedAST(script, IATEvents.parse(source, script));
+	}
+	
+	public String getScript() {
+		return script_;
+	}
+	
+	public ATAbstractGrammar getAST() {
+		return ast_;
+	}
+
+}
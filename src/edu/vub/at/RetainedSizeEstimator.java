@@ -0,0 +1,282 @@
+/**
+ * AmbientTalk/2 Project
+ * RetainedSizeEstimator.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A RetainedSizeEstimator estimates the number of bytes of heap memory retained by an object graph,
+ * without the cost of a heap dump. It walks the instance fields of the objects reachable from a root,
+ * and sums their estimated sizes, assuming the layout of a 64-bit JVM with compressed references.
+ * The walk does not cross boundary objects (e.g. other actors or the shell), and it is bounded:
+ * <ul>
+ *   <li>arrays and collections with more elements than the sample size are sampled: only a random
+ *       selection of the elements of an array, or the first elements of a collection, is walked, and
+ *       the size of each sample is scaled accordingly.
+ *   <li>the walk stops after visiting a given number of objects, in which case the estimate is a lower bound.
+ * </ul>
+ * The fields of JDK classes cannot be read by reflection, so maps and collections are walked through
+ * their public interface (counting a fixed overhead per element), and other JDK objects are only
+ * counted themselves. As the walked objects may be modified concurrently, the estimate is approximate.
+ */
+public final class RetainedSizeEstimator {
+
+	private static final int _HEADER_ = 12;
+	private static final int _ARRAY_HEADER_ = 16;
+	private static final int _REFERENCE_ = 4;
+	/** the estimated overhead of an element of a JDK map or collection, e.g. a hash map node */
+	private static final int _ELEMENT_ = 32;
+
+	/** the size and reference fields of a class, shared by all estimators */
+	private static final class Layout {
+		final long size_;
+		/** null if the fields of the class cannot be read */
+		final Field[] references_;
+
+		Layout(long size, Field[] references) {
+			size_ = size;
+			references_ = references;
+		}
+	}
+
+	private static final Map<Class<?>, Layout> _LAYOUTS_ = new ConcurrentHashMap<Class<?>, Layout>();
+
+	/**
+	 * The outcome of an estimation.
+	 */
+	public static final class Estimate {
+		public final long bytes;
+		public final int objects;
+		/** whether the walk was cut short, in which case the number of bytes is a lower bound */
+		public final boolean truncated;
+
+		private Estimate(long bytes, int objects, boolean truncated) {
+			this.bytes = bytes;
+			this.objects = objects;
+			this.truncated = truncated;
+		}
+	}
+
+	private final int limit_;
+	private final int sampleSize_;
+	private final Class<?>[] boundaries_;
+	private final Random random_ = new Random();
+
+	/**
+	 * @param limit the maximum number of objects visited by a walk
+	 * @param sampleSize the number of elements walked of a larger array or collection
+	 * @param boundaries the classes whose instances are not walked unless they are the root
+	 */
+	public RetainedSizeEstimator(int limit, int sampleSize, Class<?>... boundaries) {
+		limit_ = limit;
+		sampleSize_ = Math.max(1, sampleSize);
+		boundaries_ = boundaries;
+	}
+
+	/**
+	 * Estimates the size of the objects reachable from the root.
+	 * @param excluded objects which are not walked, e.g. because they are estimated separately
+	 */
+	public Estimate estimate(Object root, Object... excluded) {
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		Collections.addAll(visited, excluded);
+		// pending objects and the weight with which they are counted, which is above 1 for sampled elements
+		List<Object> pending = new ArrayList<Object>();
+		List<Double> weights = new ArrayList<Double>();
+		pending.add(root);
+		weights.add(Double.valueOf(1));
+		double bytes = 0;
+		int objects = 0;
+		while (!pending.isEmpty()) {
+			int last = pending.size() - 1;
+			Object object = pending.remove(last);
+			double weight = weights.remove(last).doubleValue();
+			if (object == null || (object != root && isBoundary(object)) || !visited.add(object)) {
+				continue;
+			}
+			if (++objects > limit_) {
+				return new Estimate((long) bytes, objects - 1, true);
+			}
+			try {
+				bytes += weight * walk(object, weight, pending, weights);
+			} catch (RuntimeException e) {
+				// the object was modified while walking it, or cannot be read: only its elements walked so far count
+			}
+		}
+		return new Estimate((long) bytes, objects, false);
+	}
+
+	/**
+	 * Adds the objects referred to by the given object to the pending objects.
+	 * @return the size of the object itself
+	 */
+	private long walk(Object object, double weight, List<Object> pending, List<Double> weights) {
+		Class<?> type = object.getClass();
+		if (type.isArray()) {
+			int length = Array.getLength(object);
+			Class<?> component = type.getComponentType();
+			if (!component.isPrimitive()) {
+				Object[] elements = (Object[]) object;
+				if (length <= sampleSize_) {
+					for (int i = 0; i < length; i++) {
+						push(elements[i], weight, pending, weights);
+					}
+				} else {
+					double sampleWeight = weight * length / sampleSize_;
+					for (int i = 0; i < sampleSize_; i++) {
+						push(elements[random_.nextInt(length)], sampleWeight, pending, weights);
+					}
+				}
+			}
+			return align(_ARRAY_HEADER_ + (long) length * sizeOf(component));
+		}
+		Layout layout = layoutOf(type);
+		if (layout.references_ != null) {
+			for (int i = 0; i < layout.references_.length; i++) {
+				try {
+					push(layout.references_[i].get(object), weight, pending, weights);
+				} catch (IllegalAccessException e) {
+					// made accessible when computing the layout
+				}
+			}
+			return layout.size_;
+		}
+		if (object instanceof String) {
+			return layout.size_ + align(_ARRAY_HEADER_ + ((String) object).length());
+		}
+		if (object instanceof Map) {
+			return layout.size_ + walkElements(((Map<?, ?>) object).entrySet(), true, weight, pending, weights);
+		}
+		if (object instanceof Collection) {
+			return layout.size_ + walkElements((Collection<?>) object, false, weight, pending, weights);
+		}
+		return layout.size_;
+	}
+
+	/**
+	 * Walks every element of the collection, or only the first elements of a larger collection: iterating
+	 * stops once the sample size is reached, and the sampled elements are weighted to stand in for the
+	 * elements that were not visited.
+	 * @return the estimated overhead of the elements in the collection itself
+	 */
+	private long walkElements(Collection<?> elements, boolean entries, double weight, List<Object> pending, List<Double> weights) {
+		int size = elements.size();
+		int samples = Math.min(size, sampleSize_);
+		double sampleWeight = (samples == 0) ? weight : weight * size / samples;
+		Iterator<?> iter = elements.iterator();
+		for (int i = 0; i < samples && iter.hasNext(); i++) {
+			Object element = iter.next();
+			if (entries) {
+				Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+				push(entry.getKey(), sampleWeight, pending, weights);
+				push(entry.getValue(), sampleWeight, pending, weights);
+			} else {
+				push(element, sampleWeight, pending, weights);
+			}
+		}
+		return (long) size * _ELEMENT_;
+	}
+
+	private static void push(Object object, double weight, List<Object> pending, List<Double> weights) {
+		if (object != null) {
+			pending.add(object);
+			weights.add(Double.valueOf(weight));
+		}
+	}
+
+	private boolean isBoundary(Object object) {
+		for (int i = 0; i < boundaries_.length; i++) {
+			if (boundaries_[i].isInstance(object)) {
+				return true;
+			}
+		}
+		return object instanceof Class || object instanceof ClassLoader || object instanceof Thread;
+	}
+
+	private static Layout layoutOf(Class<?> type) {
+		Layout layout = _LAYOUTS_.get(type);
+		if (layout == null) {
+			long size = _HEADER_;
+			List<Field> references = new ArrayList<Field>();
+			boolean readable = true;
+			for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+				Field[] fields = c.getDeclaredFields();
+				for (int i = 0; i < fields.length; i++) {
+					Field field = fields[i];
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					size += sizeOf(field.getType());
+					if (readable && !field.getType().isPrimitive()) {
+						try {
+							field.setAccessible(true);
+							references.add(field);
+						} catch (RuntimeException e) {
+							// e.g. the fields of JDK classes, which are not open to reflection
+							readable = false;
+						}
+					}
+				}
+			}
+			layout = new Layout(align(size), readable ? references.toArray(new Field[references.size()]) : null);
+			_LAYOUTS_.put(type, layout);
+		}
+		return layout;
+	}
+
+	private static int sizeOf(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return _REFERENCE_;
+		} else if (type == long.class || type == double.class) {
+			return 8;
+		} else if (type == int.class || type == float.class) {
+			return 4;
+		} else if (type == short.class || type == char.class) {
+			return 2;
+		} else {
+			return 1;
+		}
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+}
@@ -0,0 +1,200 @@
+/**
+ * AmbientTalk/2 Project
+ * SessionLog.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SessionLog records an interactive iat session (selected using --record) such that it can be
+ * replayed later on (using --replay). The log is a text file with one entry per line, of the form
+ * <tt>time TAB kind TAB text</tt>, where time is the number of microseconds since the session started
+ * and tabs, newlines and backslashes in the text are escaped. The kinds of entries are:
+ * <ul>
+ *   <li><tt>start</tt> the first entry of a session, its text is the version of iat.
+ *   <li><tt>input</tt> a line read by the read-eval-print loop, including continuation lines.
+ *   <li><tt>command</tt> a shell command read by the read-eval-print loop, e.g. <tt>:reload</tt>.
+ *   <li><tt>readline</tt> a line read on behalf of <tt>system.readNextLine:catch:</tt>.
+ *   <li><tt>output</tt> the text printed in response to the preceding entry. It is written as soon as
+ *       the shell reads its next line, so its time marks the end of the preceding exchange.
+ * </ul>
+ * Entries are written as the session progresses, such that the log of a shell that crashed or hung
+ * can still be replayed up to that point. Lines starting with '#' are ignored.
+ */
+public final class SessionLog {
+
+	public static final String _START_ = "start";
+	public static final String _INPUT_ = "input";
+	public static final String _COMMAND_ = "command";
+	public static final String _READLINE_ = "readline";
+	public static final String _OUTPUT_ = "output";
+
+	/**
+	 * A line read by the shell, together with the output it caused and the number of microseconds
+	 * that passed until the shell read its next line (or -1 if the session ended before that).
+	 */
+	public static final class Exchange {
+		public final String kind;
+		public final String text;
+		public final String output;
+		public final long latencyMicros;
+
+		public Exchange(String kind, String text, String output, long latencyMicros) {
+			this.kind = kind;
+			this.text = text;
+			this.output = output;
+			this.latencyMicros = latencyMicros;
+		}
+	}
+
+	private final Writer output_;
+	private final long start_ = System.nanoTime();
+
+	/**
+	 * Starts a new session log on the given stream, which is closed by {@link #close()}.
+	 * @param version the version of the shell that is recorded
+	 */
+	public SessionLog(OutputStream out, String version) throws IOException {
+		output_ = new OutputStreamWriter(out, "UTF-8");
+		append(_START_, version);
+	}
+
+	/**
+	 * Appends an entry of the given kind, timestamped with the current time.
+	 */
+	public synchronized void append(String kind, String text) throws IOException {
+		output_.write(Long.toString((System.nanoTime() - start_) / 1000));
+		output_.write('\t');
+		output_.write(kind);
+		output_.write('\t');
+		output_.write(escape(text));
+		output_.write('\n');
+		output_.flush();
+	}
+
+	public synchronized void close() throws IOException {
+		output_.close();
+	}
+
+	/**
+	 * Reads a session log into the list of its exchanges, the first of which is the start of the
+	 * session: its output is the output printed before the shell read its first line.
+	 * @throws IOException if the log is malformed
+	 */
+	public static List<Exchange> read(Reader in) throws IOException {
+		BufferedReader reader = new BufferedReader(in);
+		List<Exchange> exchanges = new ArrayList<Exchange>();
+		String kind = null;
+		String text = null;
+		long time = 0;
+		boolean started = false;
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] entry = line.split("\t", 3);
+			if (entry.length != 3) {
+				throw new IOException("malformed session log entry on line " + lineNumber);
+			}
+			long entryTime;
+			try {
+				entryTime = Long.parseLong(entry[0]);
+			} catch (NumberFormatException e) {
+				throw new IOException("malformed time on line " + lineNumber);
+			}
+			String entryText = unescape(entry[2]);
+			if (entry[1].equals(_OUTPUT_)) {
+				if (kind == null) {
+					throw new IOException("output without preceding input on line " + lineNumber);
+				}
+				exchanges.add(new Exchange(kind, text, entryText, entryTime - time));
+				kind = null;
+			} else {
+				// a session starts with a start entry, and has only one
+				if (entry[1].equals(_START_) == started) {
+					throw new IOException("unexpected " + entry[1] + " entry on line " + lineNumber);
+				}
+				started = true;
+				if (kind != null) {
+					// the previous line was read without printing anything and without a later read
+					exchanges.add(new Exchange(kind, text, "", -1));
+				}
+				kind = entry[1];
+				text = entryText;
+				time = entryTime;
+			}
+		}
+		if (kind != null) {
+			exchanges.add(new Exchange(kind, text, "", -1));
+		}
+		return exchanges;
+	}
+
+	static String escape(String text) {
+		StringBuffer escaped = new StringBuffer(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '\\': escaped.append("\\\\"); break;
+				case '\t': escaped.append("\\t"); break;
+				case '\n': escaped.append("\\n"); break;
+				case '\r': escaped.append("\\r"); break;
+				default: escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	static String unescape(String text) {
+		StringBuffer unescaped = new StringBuffer(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length()) {
+				switch (text.charAt(++i)) {
+					case 't': unescaped.append('\t'); break;
+					case 'n': unescaped.append('\n'); break;
+					case 'r': unescaped.append('\r'); break;
+					default: unescaped.append(text.charAt(i));
+				}
+			} else {
+				unescaped.append(c);
+			}
+		}
+		return unescaped.toString();
+	}
+
+}
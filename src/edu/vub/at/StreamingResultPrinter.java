@@ -0,0 +1,283 @@
+/**
+ * AmbientTalk/2 Project
+ * StreamingResultPrinter.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at;
+
+import java.util.LinkedList;
+
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.objects.ATObject;
+import edu.vub.at.objects.natives.NATTable;
+import edu.vub.at.objects.natives.NATText;
+
+/**
+ * A StreamingResultPrinter prints the result of an evaluation onto an {@link IATIO} incrementally,
+ * rather than first rendering the entire value into a single String. Tables are traversed element
+ * by element and texts are written in slices, while all other objects are printed using their
+ * <tt>meta_print</tt> method.
+ * <p>
+ * The amount of output per page is bounded by three limits:
+ * <ul>
+ *   <li>the nesting depth up to which tables are expanded (deeper tables are printed as <tt>[...]</tt>),
+ *   <li>the number of table elements printed,
+ *   <li>the number of characters printed (longer texts are truncated and marked with <tt>...</tt>).
+ * </ul>
+ * When the element or character limit is reached while a table or text is still being printed, the printer
+ * remembers where it stopped and prints a truncation marker. The remaining elements or characters are only
+ * visited when {@link #printMore()} is invoked (the <tt>:more</tt> shell command).
+ * <p>
+ * Note that only the output of <tt>meta_print</tt> is bounded, not its evaluation: objects with a custom
+ * <tt>meta_print</tt> method still render their entire representation before it is truncated.
+ * <p>
+ * Because printing may execute arbitrary AmbientTalk code, all methods except {@link #printText(String, String)}
+ * should be invoked by the actor owning the printed value.
+ */
+public final class StreamingResultPrinter {
+
+	private static final int _BUFFER_SIZE_ = 4096;
+	private static final String _TRUNCATION_MARKER_ = "...";
+
+	/**
+	 * a table or text which is only partially printed, together with the index of
+	 * the next element or character to print
+	 */
+	private static final class Cursor {
+		final NATTable table_;
+		final String text_;
+		final int depth_;
+		int next_ = 0;
+
+		Cursor(NATTable table, int depth) {
+			table_ = table;
+			text_ = null;
+			depth_ = depth;
+		}
+
+		Cursor(String text) {
+			table_ = null;
+			text_ = text;
+			depth_ = 0;
+		}
+	}
+
+	private final IATIO iatio_;
+	private final int maxDepth_;
+	private final int maxElements_;
+	private final int maxChars_;
+
+	/** the tables which are being printed, innermost table first */
+	private final LinkedList<Cursor> pending_ = new LinkedList<Cursor>();
+	private final StringBuffer buffer_ = new StringBuffer();
+	private int elementsPrinted_;
+	private int charsPrinted_;
+
+	/**
+	 * @param iatio the i/o on which values are printed
+	 * @param maxDepth the maximum nesting depth up to which tables are expanded
+	 * @param maxElements the maximum number of table elements printed per page
+	 * @param maxChars the maximum number of characters printed per page
+	 */
+	public StreamingResultPrinter(IATIO iatio, int maxDepth, int maxElements, int maxChars) {
+		iatio_ = iatio;
+		maxDepth_ = maxDepth;
+		maxElements_ = maxElements;
+		maxChars_ = maxChars;
+	}
+
+	/**
+	 * Prints the first page of the given value, preceded by the given prefix and followed by a newline.
+	 * Any output that was still pending for a previously printed value is discarded.
+	 */
+	public void print(String prefix, ATObject value) throws InterpreterException {
+		pending_.clear();
+		startPage();
+		try {
+			append(prefix);
+			emit(value, 0);
+			drain();
+		} catch (InterpreterException e) {
+			// printing an element failed, the remainder can no longer be printed
+			pending_.clear();
+			throw e;
+		} finally {
+			endPage();
+		}
+	}
+
+	/**
+	 * Prints the next page of the value that was last printed, if its output was truncated.
+	 */
+	public void printMore() throws InterpreterException {
+		startPage();
+		try {
+			if (pending_.isEmpty()) {
+				append("no more output");
+			} else {
+				append(_TRUNCATION_MARKER_);
+				drain();
+			}
+		} catch (InterpreterException e) {
+			pending_.clear();
+			throw e;
+		} finally {
+			endPage();
+		}
+	}
+
+	/**
+	 * Prints a native String (e.g. an error message), preceded by the given prefix and followed by a newline.
+	 * Any output that was still pending for a previously printed value is discarded.
+	 */
+	public void printText(String prefix, String text) {
+		pending_.clear();
+		startPage();
+		append(prefix);
+		write(text);
+		endPage();
+	}
+
+	/**
+	 * @return whether the output of the last printed value was truncated and more output is available
+	 */
+	public boolean hasMore() {
+		return !pending_.isEmpty();
+	}
+
+	private void startPage() {
+		elementsPrinted_ = 0;
+		charsPrinted_ = 0;
+		buffer_.setLength(0);
+	}
+
+	private void endPage() {
+		buffer_.append('\n');
+		flush();
+	}
+
+	/**
+	 * Starts printing a value: tables and texts are opened and scheduled for piecewise printing by
+	 * {@link #drain()}, all other values are printed immediately.
+	 */
+	private void emit(ATObject value, int depth) throws InterpreterException {
+		if (value instanceof NATTable) {
+			NATTable table = (NATTable) value;
+			if (depth >= maxDepth_ && table.elements_.length > 0) {
+				append("[" + _TRUNCATION_MARKER_ + "]");
+			} else {
+				append("[");
+				pending_.addFirst(new Cursor(table, depth + 1));
+			}
+		} else if (value instanceof NATText) {
+			append("\"");
+			pending_.addFirst(new Cursor(((NATText) value).javaValue));
+		} else {
+			write(value.meta_print().javaValue);
+		}
+	}
+
+	/**
+	 * Prints the elements of the pending tables and the characters of the pending texts until
+	 * either all of them are closed or the output limits for the current page are reached.
+	 */
+	private void drain() throws InterpreterException {
+		while (!pending_.isEmpty()) {
+			Cursor cursor = pending_.getFirst();
+			if (cursor.text_ != null) {
+				if (!drainText(cursor)) {
+					return;
+				}
+				continue;
+			}
+			ATObject[] elements = cursor.table_.elements_;
+			if (cursor.next_ >= elements.length) {
+				append("]");
+				pending_.removeFirst();
+			} else if (elementsPrinted_ >= maxElements_ || charsPrinted_ >= maxChars_) {
+				append(" " + _TRUNCATION_MARKER_ + " (" + (elements.length - cursor.next_) + " more, type :more to continue)");
+				return;
+			} else {
+				if (cursor.next_ > 0) {
+					append(", ");
+				}
+				ATObject element = elements[cursor.next_++];
+				elementsPrinted_++;
+				emit(element, cursor.depth_);
+			}
+		}
+	}
+
+	/**
+	 * Writes the next slice of a pending text, bounded by both the character limit of the page and
+	 * the size of the output buffer, so that long texts never have to be copied as a whole.
+	 * @return false if the page is full and the text is left pending for {@link #printMore()}
+	 */
+	private boolean drainText(Cursor cursor) {
+		String text = cursor.text_;
+		if (cursor.next_ >= text.length()) {
+			append("\"");
+			pending_.removeFirst();
+		} else if (charsPrinted_ >= maxChars_) {
+			append(" " + _TRUNCATION_MARKER_ + " (" + (text.length() - cursor.next_) + " more characters, type :more to continue)");
+			return false;
+		} else {
+			int end = cursor.next_ + Math.min(Math.min(maxChars_ - charsPrinted_, _BUFFER_SIZE_), text.length() - cursor.next_);
+			charsPrinted_ += end - cursor.next_;
+			append(text.substring(cursor.next_, end));
+			cursor.next_ = end;
+		}
+		return true;
+	}
+
+	/**
+	 * Appends text to the output, truncating it if it would exceed the character limit of the page.
+	 */
+	private void write(String text) {
+		int remaining = maxChars_ - charsPrinted_;
+		if (text.length() > remaining) {
+			text = text.substring(0, Math.max(remaining, 0)) + _TRUNCATION_MARKER_;
+		}
+		charsPrinted_ += text.length();
+		append(text);
+	}
+
+	/**
+	 * Appends text to the output without accounting for it in the limits of the page,
+	 * used for prefixes, table delimiters and truncation markers.
+	 */
+	private void append(String text) {
+		buffer_.append(text);
+		if (buffer_.length() >= _BUFFER_SIZE_) {
+			flush();
+		}
+	}
+
+	private void flush() {
+		iatio_.print(buffer_.toString());
+		buffer_.setLength(0);
+	}
+
+}
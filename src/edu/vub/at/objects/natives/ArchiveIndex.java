@@ -0,0 +1,267 @@
+/**
+ * AmbientTalk/2 Project
+ * ArchiveIndex.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at.objects.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * An ArchiveIndex provides read access to the entries of a jar or zip archive on the object path.
+ * The archive is mapped into memory and its central directory is read once into a table which maps
+ * the name of every entry onto its location in the archive. Looking up a module hence requires neither
+ * file system calls nor a scan of the archive. The content of an entry is decompressed straight from
+ * the mapped archive when it is read.
+ * <p>
+ * An index is immutable and may be shared by all actors whose lobby refers to the archive.
+ * Archives in the zip64 format and encrypted entries are not supported.
+ */
+public final class ArchiveIndex {
+
+	private static final int _END_SIGNATURE_ = 0x06054b50;
+	private static final int _CENTRAL_SIGNATURE_ = 0x02014b50;
+	private static final int _LOCAL_SIGNATURE_ = 0x04034b50;
+	private static final int _END_SIZE_ = 22;
+	private static final int _MAX_COMMENT_SIZE_ = 0xFFFF;
+	private static final int _STORED_ = 0;
+	private static final int _DEFLATED_ = 8;
+	private static final int _ENCRYPTED_FLAG_ = 1;
+	
+	private static final Charset _NAME_CHARSET_ = Charset.forName("UTF-8");
+	private static final Charset _TEXT_CHARSET_ = Charset.defaultCharset();
+	
+	/** the location of an entry's data in the archive, as recorded in the central directory */
+	private static final class Entry {
+		final int method_;
+		final int compressedSize_;
+		final int size_;
+		final int localOffset_;
+		
+		Entry(int method, int compressedSize, int size, int localOffset) {
+			method_ = method;
+			compressedSize_ = compressedSize;
+			size_ = size;
+			localOffset_ = localOffset;
+		}
+	}
+	
+	private final File file_;
+	private final ByteBuffer archive_;
+	private final Map<String, Entry> entries_ = new HashMap<String, Entry>();
+	/** the names (without trailing '/') of all directories, including implicit ones */
+	private final Set<String> directories_ = new HashSet<String>();
+	
+	private ArchiveIndex(File file, ByteBuffer archive) throws IOException {
+		file_ = file;
+		archive_ = archive.order(ByteOrder.LITTLE_ENDIAN);
+		readCentralDirectory();
+	}
+	
+	/**
+	 * Maps the given archive into memory and reads its central directory.
+	 * @throws IOException if the file cannot be read or is not a supported archive
+	 */
+	public static ArchiveIndex open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new ZipException("archive too large: " + file.getPath());
+			}
+			// the mapping remains valid after the channel is closed
+			return new ArchiveIndex(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * @return whether the given file is a jar or zip archive, judging by its extension
+	 */
+	public static boolean isArchive(File file) {
+		String name = file.getName().toLowerCase();
+		return (name.endsWith(".jar") || name.endsWith(".zip")) && file.isFile();
+	}
+	
+	public File getFile() {
+		return file_;
+	}
+	
+	/** @return the number of files in the archive */
+	public int size() {
+		return entries_.size();
+	}
+	
+	/**
+	 * @param name a path relative to the root of the archive, with '/' as separator
+	 * @return whether the archive contains a file with the given name
+	 */
+	public boolean isFile(String name) {
+		return entries_.containsKey(name);
+	}
+	
+	/**
+	 * @param name a path relative to the root of the archive, with '/' as separator and without a
+	 * trailing '/'. The empty string denotes the root.
+	 * @return whether the archive contains a directory with the given name
+	 */
+	public boolean isDirectory(String name) {
+		return name.length() == 0 || directories_.contains(name);
+	}
+	
+	/**
+	 * @return the (decompressed) content of the given file, or null if the archive contains no such file
+	 */
+	public ByteBuffer read(String name) throws IOException {
+		Entry entry = entries_.get(name);
+		if (entry == null) {
+			return null;
+		}
+		int local = entry.localOffset_;
+		if (archive_.getInt(local) != _LOCAL_SIGNATURE_) {
+			throw new ZipException("corrupt local header of " + name + " in " + file_.getPath());
+		}
+		int data = local + 30 + unsignedShort(local + 26) + unsignedShort(local + 28);
+		ByteBuffer compressed = archive_.duplicate();
+		compressed.position(data);
+		compressed.limit(data + entry.compressedSize_);
+		compressed = compressed.slice();
+		
+		if (entry.method_ == _STORED_) {
+			return compressed;
+		}
+		byte[] content = new byte[entry.size_];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			int offset = 0;
+			while (offset < content.length) {
+				int inflated = inflater.inflate(content, offset, content.length - offset);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new ZipException("truncated entry " + name + " in " + file_.getPath());
+				}
+				offset += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("corrupt entry " + name + " in " + file_.getPath() + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(content);
+	}
+	
+	/**
+	 * @return the content of the given file decoded as text, or null if the archive contains no such file
+	 */
+	public String readText(String name) throws IOException {
+		ByteBuffer content = read(name);
+		return (content == null) ? null : _TEXT_CHARSET_.decode(content).toString();
+	}
+	
+	private void readCentralDirectory() throws IOException {
+		int end = findEndOfCentralDirectory();
+		int count = unsignedShort(end + 10);
+		int offset = archive_.getInt(end + 16);
+		if (count == 0xFFFF || offset == 0xFFFFFFFF) {
+			throw new ZipException("zip64 archives are not supported: " + file_.getPath());
+		}
+		for (int i = 0; i < count; i++) {
+			if (offset < 0 || offset + 46 > archive_.limit() || archive_.getInt(offset) != _CENTRAL_SIGNATURE_) {
+				throw new ZipException("corrupt central directory in " + file_.getPath());
+			}
+			int flags = unsignedShort(offset + 8);
+			int method = unsignedShort(offset + 10);
+			int compressedSize = archive_.getInt(offset + 20);
+			int size = archive_.getInt(offset + 24);
+			int nameLength = unsignedShort(offset + 28);
+			int extraLength = unsignedShort(offset + 30);
+			int commentLength = unsignedShort(offset + 32);
+			int localOffset = archive_.getInt(offset + 42);
+			String name = readName(offset + 46, nameLength);
+			offset += 46 + nameLength + extraLength + commentLength;
+			
+			if (name.endsWith("/")) {
+				addDirectories(name.substring(0, name.length() - 1));
+				continue;
+			}
+			addDirectories(parentOf(name));
+			if ((flags & _ENCRYPTED_FLAG_) != 0 || (method != _STORED_ && method != _DEFLATED_)
+					|| compressedSize < 0 || size < 0 || localOffset < 0) {
+				// unsupported entries are left out of the index, as if they were absent
+				continue;
+			}
+			entries_.put(name, new Entry(method, compressedSize, size, localOffset));
+		}
+	}
+	
+	private int findEndOfCentralDirectory() throws IOException {
+		int last = archive_.limit() - _END_SIZE_;
+		int first = Math.max(0, last - _MAX_COMMENT_SIZE_);
+		for (int position = last; position >= first; position--) {
+			if (archive_.getInt(position) == _END_SIGNATURE_) {
+				return position;
+			}
+		}
+		throw new ZipException("not a jar or zip archive: " + file_.getPath());
+	}
+	
+	private void addDirectories(String directory) {
+		while (directory.length() > 0 && directories_.add(directory)) {
+			directory = parentOf(directory);
+		}
+	}
+	
+	private static String parentOf(String name) {
+		int slash = name.lastIndexOf('/');
+		return (slash < 0) ? "" : name.substring(0, slash);
+	}
+	
+	private String readName(int position, int length) {
+		byte[] name = new byte[length];
+		ByteBuffer buffer = archive_.duplicate();
+		buffer.position(position);
+		buffer.get(name);
+		return new String(name, _NAME_CHARSET_);
+	}
+	
+	private int unsignedShort(int position) {
+		return archive_.getShort(position) & 0xFFFF;
+	}
+
+}
@@ -0,0 +1,225 @@
+/**
+ * AmbientTalk/2 Project
+ * AsyncFileIO.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at.objects.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import edu.vub.at.IATEvents;
+import edu.vub.at.actors.natives.ELActor;
+import edu.vub.at.exceptions.XIOProblem;
+import edu.vub.at.objects.ATClosure;
+
+/**
+ * AsyncFileIO implements the file primitives of the system object on top of {@link AsynchronousFileChannel},
+ * such that the requesting actor does not block while a file is read or written. As with
+ * <tt>readNextLine:catch:</tt>, the outcome is delivered to the requesting actor by triggering one of
+ * the two closures passed along with the request: the success closure, or the failure closure applied
+ * to an AmbientTalk representation of the I/O exception.
+ * <p>
+ * Files are read and written as text in the platform's default character set. Appends to the same file
+ * are performed one after the other, in the order in which they were requested, such that concurrent
+ * appends do not overwrite one another.
+ */
+final class AsyncFileIO {
+
+	private static final Charset _CHARSET_ = Charset.defaultCharset();
+
+	/**
+	 * Maps the canonical path of every file that is being appended to onto the appends that wait for
+	 * the current one to complete. The end of the file, where an append starts, is only determined
+	 * once the previous append has completed.
+	 */
+	private static final Map<String, LinkedList<Runnable>> _PENDING_APPENDS_ = new HashMap<String, LinkedList<Runnable>>();
+
+	private AsyncFileIO() { }
+
+	/**
+	 * Reads the entire file, and triggers success with the file's content as a text.
+	 */
+	public static void read(String path, final ELActor owner, final ATClosure success, final ATClosure failure) {
+		final AsynchronousFileChannel channel;
+		final ByteBuffer content;
+		try {
+			channel = AsynchronousFileChannel.open(Paths.get(path), StandardOpenOption.READ);
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				channel.close();
+				throw new IOException("file too large to be read as text: " + path);
+			}
+			content = ByteBuffer.allocate((int) size);
+		} catch (IOException e) {
+			fail(owner, failure, e, "readFile:");
+			return;
+		}
+		channel.read(content, 0, null, new CompletionHandler<Integer, Object>() {
+			public void completed(Integer read, Object attachment) {
+				if (read.intValue() >= 0 && content.hasRemaining()) {
+					// partial read, continue where it left off
+					channel.read(content, content.position(), null, this);
+					return;
+				}
+				close(channel);
+				content.flip();
+				IATEvents.trigger(owner, success, NATTable.of(NATText.atValue(_CHARSET_.decode(content).toString())), "readFile:");
+			}
+			public void failed(Throwable exception, Object attachment) {
+				close(channel);
+				fail(owner, failure, exception, "readFile:");
+			}
+		});
+	}
+
+	/**
+	 * Writes the text to the file, replacing its content, and triggers success without arguments.
+	 */
+	public static void write(String path, String text, ELActor owner, ATClosure success, ATClosure failure) {
+		write(path, text, false, owner, success, failure, "writeFile:", null);
+	}
+
+	/**
+	 * Appends the text to the end of the file, and triggers success without arguments. If other appends
+	 * to the same file are in progress, the text is only appended once they have completed.
+	 */
+	public static void append(final String path, final String text, final ELActor owner,
+			                  final ATClosure success, final ATClosure failure) {
+		final String key;
+		try {
+			key = new File(path).getCanonicalPath();
+		} catch (IOException e) {
+			fail(owner, failure, e, "appendFile:");
+			return;
+		}
+		Runnable append = new Runnable() {
+			public void run() {
+				write(path, text, true, owner, success, failure, "appendFile:", new Runnable() {
+					public void run() {
+						appendCompleted(key);
+					}
+				});
+			}
+		};
+		synchronized (_PENDING_APPENDS_) {
+			LinkedList<Runnable> pending = _PENDING_APPENDS_.get(key);
+			if (pending != null) {
+				pending.add(append);
+				return;
+			}
+			_PENDING_APPENDS_.put(key, new LinkedList<Runnable>());
+		}
+		append.run();
+	}
+
+	/**
+	 * Starts the next append to the file with the given canonical path, if any.
+	 */
+	private static void appendCompleted(String key) {
+		Runnable next;
+		synchronized (_PENDING_APPENDS_) {
+			LinkedList<Runnable> pending = _PENDING_APPENDS_.get(key);
+			next = pending.poll();
+			if (next == null) {
+				_PENDING_APPENDS_.remove(key);
+			}
+		}
+		if (next != null) {
+			next.run();
+		}
+	}
+
+	/**
+	 * @param done if not null, run once the write has completed or failed, before its outcome is triggered
+	 */
+	private static void write(String path, String text, boolean append, final ELActor owner,
+			                  final ATClosure success, final ATClosure failure, final String description,
+			                  final Runnable done) {
+		final AsynchronousFileChannel channel;
+		final ByteBuffer content = _CHARSET_.encode(text);
+		final long start;
+		try {
+			Path file = Paths.get(path);
+			OpenOption[] options = append ?
+				new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE } :
+				new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING };
+			channel = AsynchronousFileChannel.open(file, options);
+			start = append ? channel.size() : 0;
+		} catch (IOException e) {
+			run(done);
+			fail(owner, failure, e, description);
+			return;
+		}
+		channel.write(content, start, null, new CompletionHandler<Integer, Object>() {
+			public void completed(Integer written, Object attachment) {
+				if (content.hasRemaining()) {
+					// partial write, continue where it left off
+					channel.write(content, start + content.position(), null, this);
+					return;
+				}
+				close(channel);
+				run(done);
+				IATEvents.trigger(owner, success, NATTable.EMPTY, description);
+			}
+			public void failed(Throwable exception, Object attachment) {
+				close(channel);
+				run(done);
+				fail(owner, failure, exception, description);
+			}
+		});
+	}
+
+	private static void run(Runnable done) {
+		if (done != null) {
+			done.run();
+		}
+	}
+
+	private static void fail(ELActor owner, ATClosure failure, Throwable exception, String description) {
+		IOException problem = (exception instanceof IOException) ? (IOException) exception : new IOException(exception);
+		IATEvents.trigger(owner, failure, NATTable.of(new XIOProblem(problem).getAmbientTalkRepresentation()), description);
+	}
+
+	private static void close(AsynchronousFileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// the outcome of the request is already known, nothing left to report
+		}
+	}
+
+}
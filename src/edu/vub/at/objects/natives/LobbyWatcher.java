@@ -0,0 +1,261 @@
+/**
+ * AmbientTalk/2 Project
+ * LobbyWatcher.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at.objects.natives;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import edu.vub.at.actors.eventloops.Event;
+import edu.vub.at.actors.natives.ELActor;
+import edu.vub.at.eval.Evaluator;
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.objects.ATObject;
+import edu.vub.at.objects.grammar.ATSymbol;
+import edu.vub.at.objects.mirrors.Reflection;
+import edu.vub.at.util.logging.Logging;
+
+/**
+ * A LobbyWatcher keeps the lobby namespaces of all actors consistent with the modules on the object path.
+ * Namespaces load a module the first time it is accessed and cache it in a slot. When a module file changes,
+ * the watcher removes that slot from the corresponding namespace in the lobby of every actor, such that the
+ * module is loaded anew the next time it is accessed. Other modules and all other state remain untouched.
+ * <p>
+ * Changed modules are detected either when {@link #reloadModified()} is called explicitly (e.g. by the
+ * <tt>:reload</tt> shell command), or continuously once {@link #startWatching()} was called, using a
+ * {@link WatchService} over all directories of the object path.
+ * <p>
+ * Note that objects which already imported a module keep referring to its old version. Modules
+ * loaded from a jar or zip archive on the object path are never reloaded.
+ */
+public final class LobbyWatcher {
+
+	private static final String _MODULE_EXTENSION_ = ".at";
+
+	/** a list whose entries are arrays [ pathname:String, dir:File ], as in {@link SAFLobby} */
+	private final LinkedList objectPathRoots_;
+	
+	/** the actors whose lobby was initialized with the object path, which are forgotten once collected */
+	private final Map<ELActor, Boolean> actors_ = Collections.synchronizedMap(new WeakHashMap<ELActor, Boolean>());
+	
+	private long lastReload_ = System.currentTimeMillis();
+	private Thread watcher_ = null;
+	
+	public LobbyWatcher(LinkedList objectPathRoots) {
+		objectPathRoots_ = objectPathRoots;
+	}
+	
+	/**
+	 * Registers the given actor, whose lobby namespace will be kept up to date.
+	 */
+	public void register(ELActor actor) {
+		actors_.put(actor, Boolean.TRUE);
+	}
+	
+	/**
+	 * Invalidates all modules which were modified since the watcher was created or since this method
+	 * was last called.
+	 * @return the number of modified modules
+	 */
+	public int reloadModified() {
+		long since;
+		synchronized (this) {
+			since = lastReload_;
+			lastReload_ = System.currentTimeMillis();
+		}
+		List<File> modified = new ArrayList<File>();
+		for (Iterator iter = objectPathRoots_.iterator(); iter.hasNext();) {
+			Object[] entry = (Object[]) iter.next();
+			collectModified((File) entry[1], since, modified);
+		}
+		for (File module : modified) {
+			invalidate(module);
+		}
+		return modified.size();
+	}
+	
+	/**
+	 * Starts a daemon thread which invalidates modules as soon as their file is modified, created or deleted.
+	 * Calling this method more than once has no effect.
+	 */
+	public synchronized void startWatching() throws IOException {
+		if (watcher_ != null) {
+			return;
+		}
+		final WatchService service = FileSystems.getDefault().newWatchService();
+		final Map<WatchKey, File> directories = new HashMap<WatchKey, File>();
+		for (Iterator iter = objectPathRoots_.iterator(); iter.hasNext();) {
+			Object[] entry = (Object[]) iter.next();
+			File root = (File) entry[1];
+			if (root.isDirectory()) {
+				watchRecursively(service, root, directories);
+			}
+		}
+		watcher_ = new Thread("AmbientTalk lobby watcher") {
+			public void run() {
+				try {
+					while (true) {
+						WatchKey key = service.take();
+						File directory = directories.get(key);
+						for (WatchEvent<?> event : key.pollEvents()) {
+							if (directory == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+								continue;
+							}
+							File changed = new File(directory, ((Path) event.context()).toString());
+							if (changed.isDirectory()) {
+								// modules in new directories are loaded lazily anyway, but need to be watched
+								watchRecursively(service, changed, directories);
+							} else if (changed.getName().endsWith(_MODULE_EXTENSION_)) {
+								invalidate(changed);
+							}
+						}
+						if (!key.reset()) {
+							directories.remove(key);
+						}
+					}
+				} catch (InterruptedException e) {
+					// stop watching
+				} catch (IOException e) {
+					Logging.Init_LOG.error("Stopped watching the object path: " + e.getMessage(), e);
+				}
+			}
+		};
+		watcher_.setDaemon(true);
+		watcher_.start();
+	}
+	
+	/**
+	 * Removes the slot caching the given module from the lobby of every registered actor.
+	 * The removal is performed by each actor itself, as the lobby is owned by the actor.
+	 */
+	public void invalidate(File module) {
+		final List<String> path = lobbyPathOf(module);
+		if (path == null) {
+			return;
+		}
+		Logging.Init_LOG.info("Invalidating module " + module.getPath());
+		ELActor[] actors;
+		synchronized (actors_) {
+			actors = actors_.keySet().toArray(new ELActor[actors_.size()]);
+		}
+		for (int i = 0; i < actors.length; i++) {
+			actors[i].receive(new Event("invalidate(" + module.getName() + ")") {
+				public void process(Object actor) {
+					try {
+						removeFromLobby(path);
+					} catch (InterpreterException e) {
+						Logging.Actor_LOG.error("Could not invalidate module " + path + ": " + e.getMessage(), e);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Walks the lobby of the current actor along the given path, without loading any namespaces or modules
+	 * along the way, and removes the last slot of the path if it was loaded.
+	 */
+	private static void removeFromLobby(List<String> path) throws InterpreterException {
+		ATObject current = Evaluator.getLobbyNamespace();
+		for (int i = 0; i < path.size(); i++) {
+			ATSymbol selector = Reflection.downSelector(path.get(i));
+			if (!current.meta_respondsTo(selector).asNativeBoolean().javaValue) {
+				return; // not loaded yet, nothing to invalidate
+			}
+			if (i == path.size() - 1) {
+				current.meta_removeSlot(selector);
+			} else {
+				current = current.meta_invokeField(current, selector);
+			}
+		}
+	}
+	
+	/**
+	 * @return the names leading from the lobby to the slot holding the given module,
+	 * or null if the module is not on the object path
+	 */
+	private List<String> lobbyPathOf(File module) {
+		String modulePath = module.getAbsolutePath();
+		for (Iterator iter = objectPathRoots_.iterator(); iter.hasNext();) {
+			Object[] entry = (Object[]) iter.next();
+			String rootPath = ((File) entry[1]).getAbsolutePath() + File.separator;
+			if (modulePath.startsWith(rootPath) && modulePath.endsWith(_MODULE_EXTENSION_)) {
+				List<String> path = new ArrayList<String>();
+				Collections.addAll(path, ((String) entry[0]).split("\\."));
+				String relative = modulePath.substring(rootPath.length(), modulePath.length() - _MODULE_EXTENSION_.length());
+				Collections.addAll(path, relative.split(File.separator.equals("\\") ? "\\\\" : File.separator));
+				return path;
+			}
+		}
+		return null;
+	}
+	
+	private static void collectModified(File directory, long since, List<File> modified) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				collectModified(files[i], since, modified);
+			} else if (files[i].getName().endsWith(_MODULE_EXTENSION_) && files[i].lastModified() >= since) {
+				modified.add(files[i]);
+			}
+		}
+	}
+	
+	private static void watchRecursively(WatchService service, File directory, Map<WatchKey, File> directories) throws IOException {
+		WatchKey key = directory.toPath().register(service,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		directories.put(key, directory);
+		File[] children = directory.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				if (children[i].isDirectory()) {
+					watchRecursively(service, children[i], directories);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ * AmbientTalk/2 Project
+ * NATArchiveNamespace.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at.objects.natives;
+
+import java.io.IOException;
+
+import edu.vub.at.IATEvents;
+import edu.vub.at.eval.Evaluator;
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.exceptions.XIOProblem;
+import edu.vub.at.objects.ATAbstractGrammar;
+import edu.vub.at.objects.ATObject;
+import edu.vub.at.objects.grammar.ATSymbol;
+import edu.vub.at.objects.mirrors.Reflection;
+
+/**
+ * A NATArchiveNamespace is the counterpart of a {@link NATNamespace} for a directory within a jar or zip
+ * archive on the object path. Selecting a field which denotes a subdirectory of the archive yields a nested
+ * namespace, selecting a field which denotes a <tt>.at</tt> file loads that file as a module. As is the case
+ * for ordinary namespaces, the result is cached in a field of the namespace, such that it is looked up only
+ * once per actor.
+ * <p>
+ * Modules are looked up in the index of the archive rather than on the file system, see {@link ArchiveIndex}.
+ */
+public final class NATArchiveNamespace extends NATObject {
+
+	private static final String _AT_EXT_ = ".at";
+	
+	private final String name_;
+	private final ArchiveIndex archive_;
+	/** the path of the directory within the archive, empty for the root or ending with '/' otherwise */
+	private final String directory_;
+	
+	/**
+	 * @param name the name of the namespace, used when printing it
+	 * @param archive the archive in which the modules of this namespace reside
+	 * @param directory the path of the directory within the archive, empty for the root or ending with '/'
+	 */
+	public NATArchiveNamespace(String name, ArchiveIndex archive, String directory) {
+		name_ = name;
+		archive_ = archive;
+		directory_ = directory;
+	}
+	
+	public ATObject meta_doesNotUnderstand(ATSymbol selector) throws InterpreterException {
+		String javaSelector = Reflection.upSelector(selector);
+		String path = directory_ + javaSelector;
+		
+		if (archive_.isDirectory(path)) {
+			NATArchiveNamespace nested = new NATArchiveNamespace(name_ + "/" + javaSelector, archive_, path + "/");
+			this.meta_defineField(selector, nested);
+			return nested;
+		}
+		
+		if (archive_.isFile(path + _AT_EXT_)) {
+			try {
+				String code = archive_.readText(path + _AT_EXT_);
+				ATAbstractGrammar ast = IATEvents.parse(javaSelector + _AT_EXT_, code);
+				
+				// the module is evaluated in a fresh scope in which ~ denotes the enclosing namespace
+				NATObject fileScope = new NATObject();
+				fileScope.meta_defineField(Evaluator._CURNS_SYM_, this);
+				ast.meta_eval(new NATContext(fileScope, fileScope));
+				
+				this.meta_defineField(selector, fileScope);
+				return fileScope;
+			} catch (IOException e) {
+				throw new XIOProblem(e);
+			}
+		}
+		
+		return super.meta_doesNotUnderstand(selector);
+	}
+	
+	public NATText meta_print() throws InterpreterException {
+		return NATText.atValue("<ns:" + name_ + ">");
+	}
+
+}
@@ -0,0 +1,225 @@
+/**
+ * AmbientTalk/2 Project
+ * NATByteBufferView.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at.objects.natives;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import edu.vub.at.eval.Evaluator;
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.exceptions.XIOProblem;
+import edu.vub.at.exceptions.XIndexOutOfBounds;
+import edu.vub.at.objects.ATBoolean;
+import edu.vub.at.objects.ATClosure;
+import edu.vub.at.objects.ATNil;
+import edu.vub.at.objects.ATNumber;
+import edu.vub.at.objects.ATObject;
+
+/**
+ * A NATByteBufferView is a read-only view on a range of bytes, such as the content of a memory-mapped file
+ * returned by <tt>system.mapFile:</tt>. Bytes are only read from the underlying buffer when requested, such
+ * that large files can be processed without copying their entire content onto the heap.
+ * 
+ * The interface of a byte buffer view is as follows:
+ * 
+ *  def view := object: {
+ *   def length := the number of bytes in this view
+ *   def byteAt: index { the byte (0-255) at the given index, where the first byte is at index 1 }
+ *   def slice: from to: to { a view on the bytes from index from up to, but excluding, index to }
+ *   def text() { the bytes of this view, decoded as text }
+ *   def lines() { an iterator with methods hasNext() and next() over the lines of text in this view }
+ *   def eachLine: { |line| ... } { applies the closure to every line of text in this view }
+ * }
+ * 
+ * Like the elements of tables, bytes are indexed starting from 1: <tt>view.slice: 1 to: view.length + 1</tt>
+ * is a view on all bytes.
+ * 
+ * Lines are separated by '\n', an '\r' preceding it is not part of the line. Text is decoded using the
+ * platform's default character set, and lines are decoded one at a time.
+ */
+public final class NATByteBufferView extends NATByRef {
+
+	private static final Charset _CHARSET_ = Charset.defaultCharset();
+	
+	private final ByteBuffer buffer_;
+	
+	/**
+	 * @param buffer the bytes between the buffer's position and limit form the content of the view.
+	 * The buffer is not copied, but its position and limit are never modified.
+	 */
+	public NATByteBufferView(ByteBuffer buffer) {
+		buffer_ = buffer.slice();
+	}
+	
+	/**
+	 * Maps the entire file at the given path into memory, read-only.
+	 * @throws XIOProblem if the file cannot be opened or is too large to be mapped at once
+	 */
+	public static NATByteBufferView mapFile(String path) throws XIOProblem {
+		try {
+			FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+			try {
+				long size = channel.size();
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("file too large to be mapped: " + path);
+				}
+				// the mapping remains valid after the channel is closed
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				return new NATByteBufferView(mapped);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			throw new XIOProblem(e);
+		}
+	}
+	
+	public NATText meta_print() throws InterpreterException {
+		return NATText.atValue("<byte buffer view:" + buffer_.limit() + " bytes>");
+	}
+	
+	public ATNumber base_length() {
+		return NATNumber.atValue(buffer_.limit());
+	}
+	
+	public ATNumber base_byteAt_(ATNumber index) throws InterpreterException {
+		int i = checkIndex(index.asNativeNumber().javaValue, 1, buffer_.limit());
+		return NATNumber.atValue(buffer_.get(i - 1) & 0xFF);
+	}
+	
+	public NATByteBufferView base_slice_to_(ATNumber from, ATNumber to) throws InterpreterException {
+		int start = checkIndex(from.asNativeNumber().javaValue, 1, buffer_.limit() + 1);
+		int end = checkIndex(to.asNativeNumber().javaValue, start, buffer_.limit() + 1);
+		return new NATByteBufferView(range(start - 1, end - 1));
+	}
+	
+	public NATText base_text() {
+		return decode(0, buffer_.limit());
+	}
+	
+	public NATLineIterator base_lines() {
+		return new NATLineIterator(this);
+	}
+	
+	public ATNil base_eachLine_(ATClosure closure) throws InterpreterException {
+		int position = 0;
+		while (position < buffer_.limit()) {
+			int end = endOfLine(position);
+			closure.base_apply(NATTable.of(decodeLine(position, end)));
+			position = end + 1;
+		}
+		return Evaluator.getNil();
+	}
+	
+	/**
+	 * @return the underlying bytes, as a read-only buffer whose position and limit may be freely modified
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer_.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * An iterator over the lines of a view, which decodes a line only when it is requested.
+	 */
+	public static final class NATLineIterator extends NATByRef {
+		
+		private final NATByteBufferView view_;
+		private int position_ = 0;
+		
+		private NATLineIterator(NATByteBufferView view) {
+			view_ = view;
+		}
+		
+		public NATText meta_print() throws InterpreterException {
+			return NATText.atValue("<line iterator>");
+		}
+		
+		public ATBoolean base_hasNext() {
+			return NATBoolean.atValue(position_ < view_.buffer_.limit());
+		}
+		
+		/**
+		 * @return the next line, or nil if all lines were returned
+		 */
+		public ATObject base_next() {
+			if (position_ >= view_.buffer_.limit()) {
+				return Evaluator.getNil();
+			}
+			int end = view_.endOfLine(position_);
+			NATText line = view_.decodeLine(position_, end);
+			position_ = end + 1;
+			return line;
+		}
+	}
+	
+	/**
+	 * @return the offset of the first '\n' at or after the given offset, or the length of the view if there is none
+	 */
+	private int endOfLine(int offset) {
+		int limit = buffer_.limit();
+		while (offset < limit && buffer_.get(offset) != '\n') {
+			offset++;
+		}
+		return offset;
+	}
+	
+	private NATText decodeLine(int start, int end) {
+		if (end > start && buffer_.get(end - 1) == '\r') {
+			end--;
+		}
+		return decode(start, end);
+	}
+	
+	private NATText decode(int start, int end) {
+		return NATText.atValue(_CHARSET_.decode(range(start, end)).toString());
+	}
+	
+	private ByteBuffer range(int start, int end) {
+		ByteBuffer range = buffer_.duplicate();
+		range.limit(end);
+		range.position(start);
+		return range;
+	}
+	
+	/**
+	 * @return the index, if it lies between min and max (inclusive)
+	 * @throws XIndexOutOfBounds reporting the index and the length of the view otherwise
+	 */
+	private int checkIndex(int index, int min, int max) throws XIndexOutOfBounds {
+		if (index < min || index > max) {
+			throw new XIndexOutOfBounds(index, buffer_.limit());
+		}
+		return index;
+	}
+
+}
@@ -27,22 +27,24 @@
  */
 package edu.vub.at.objects.natives;
 
+import edu.vub.at.ActorRegistry;
 import edu.vub.at.IAT;
-import edu.vub.at.IATIOJline;
-import edu.vub.at.IATIOStandard;
 import edu.vub.at.actors.eventloops.Event;
 import edu.vub.at.actors.natives.ELActor;
 import edu.vub.at.eval.Evaluator;
 import edu.vub.at.exceptions.InterpreterException;
 import edu.vub.at.exceptions.XIOProblem;
+import edu.vub.at.objects.ATBoolean;
 import edu.vub.at.objects.ATClosure;
 import edu.vub.at.objects.ATNil;
+import edu.vub.at.objects.ATNumber;
 import edu.vub.at.objects.ATObject;
 import edu.vub.at.objects.ATTable;
 import edu.vub.at.util.logging.Logging;
 import edu.vub.util.TempFieldGenerator;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Instances of this class represent the 'system' object,
@@ -53,11 +55,19 @@ import java.io.IOException;
  * 
  *  def system := object: {
  *   def argv := the table of extra command-line arguments passed to iat
+ *   def metrics := an object describing the resource usage of the VM, see NATSystemMetrics
  *   def exit() { quits iat }
  *   def print(@objs) { print objects to standard output }
  *   def println(@objs) { print objects to standard output, followed by a newline }
  *   // def read() { read character from standard input }
  *   def readln() { read next line from input }
+ *   def readFile: path then: { |text| ... } catch: { |ioException| ... } { read a file asynchronously }
+ *   def writeFile: path content: text then: { ... } catch: { |ioException| ... } { write a file asynchronously }
+ *   def appendFile: path content: text then: { ... } catch: { |ioException| ... } { append to a file asynchronously }
+ *   def mapFile: path { a read-only view on the bytes of a file, see NATByteBufferView }
+ *   def exec: cmd args: table onOutput: { |text, stream| ... } onExit: { |exitValue| ... } { run a child process }
+ *   def debug() { makes the current actor debuggable }
+ *   def heap(n) { a table [ [actor, retainedBytes, mailboxBytes, allocatedBytes, mailboxLength], ... ] of the n actors retaining the most memory }
  *   // def reset() { reset VM into fresh startup state and re-evaluates init and argument file }
  * }
  *
@@ -65,16 +75,34 @@ import java.io.IOException;
  */
 public final class NATSystem extends NATByCopy {
 
-	private final NATTable argv_;
+	/** the converted command-line arguments, which may be shared by the system objects of many actors */
+	private final ATObject[] arguments_;
 	private final IAT shell_;
+	private NATTable argv_;
+	private NATSystemMetrics metrics_;
 	
 	public NATSystem(IAT shell, String[] argv) {
+		this(shell, convertArguments(argv));
+	}
+	
+	/**
+	 * @param argv command-line arguments converted using {@link #convertArguments(String[])}, which
+	 * are never modified, such that they can be shared by the system objects of all actors.
+	 */
+	public NATSystem(IAT shell, ATObject[] argv) {
+		arguments_ = argv;
+		shell_ = shell;
+	}
+	
+	/**
+	 * @return the command-line arguments as AmbientTalk texts
+	 */
+	public static ATObject[] convertArguments(String[] argv) {
 		ATObject[] convertedArgv = new ATObject[argv.length];
 		for (int i = 0; i < convertedArgv.length; i++) {
 			convertedArgv[i] = NATText.atValue(argv[i]);
 		}
-		argv_ = NATTable.atValue(convertedArgv);
-		shell_ = shell;
+		return convertedArgv;
 	}
 	
 	public NATText meta_print() throws InterpreterException {
@@ -94,22 +122,45 @@ public final class NATSystem extends NATByCopy {
 	 * @return a table of ATText values
 	 */
 	public ATTable base_getArgv() {
-		return argv_;
+		return base_argv();
 	}
 	
 	/**
 	 * def argv := command-line arguments passed to iat
-	 * @return a table of ATText values
+	 * @return a table of ATText values, created when first requested. Tables are mutable,
+	 * so the table of every actor has its own copy of the shared arguments.
 	 */
 	public ATTable base_argv() {
+		if (argv_ == null) {
+			argv_ = NATTable.atValue((ATObject[]) arguments_.clone());
+		}
 		return argv_;
 	}
 	
+	/**
+	 * def metrics := runtime metrics such as heap usage, GC counts and the shell's event counts
+	 * @return a {@link NATSystemMetrics} object, created when first requested
+	 */
+	public NATSystemMetrics base_getMetrics() {
+		return base_metrics();
+	}
+	
+	/**
+	 * def metrics := runtime metrics such as heap usage, GC counts and the shell's event counts
+	 * @return a {@link NATSystemMetrics} object, created when first requested
+	 */
+	public NATSystemMetrics base_metrics() {
+		if (metrics_ == null) {
+			metrics_ = new NATSystemMetrics(shell_);
+		}
+		return metrics_;
+	}
+	
 	/**
 	 * def exit() { quits iat }
 	 */
 	public ATNil base_exit() {
-		System.exit(0);
+		shell_.exit(0);
 		return Evaluator.getNil();
 	}
 	
@@ -150,7 +201,7 @@ public final class NATSystem extends NATByCopy {
 	 * @return nil
 	 */
 	/*public ATNil base_readNext_catch_(final ATClosure success, final ATClosure failure) throws XIOProblem {
-		shell_.repl_.event_read(ELActor.currentActor(), success, failure);
+		shell_.getReadEvalPrintLoop().event_read(ELActor.currentActor(), success, failure);
 		return Evaluator.getNil();
 	}*/
 	
@@ -162,10 +213,108 @@ public final class NATSystem extends NATByCopy {
 	 * @return nil
 	 */
 	public ATNil base_readNextLine_catch_(final ATClosure success, final ATClosure failure) throws XIOProblem {
-		shell_.repl_.event_readLine(ELActor.currentActor(), success, failure);
+		shell_.getReadEvalPrintLoop().event_readLine(ELActor.currentActor(), success, failure);
+		return Evaluator.getNil();
+	}
+	
+	/**
+	 * readFile: path then: { |text| ... } catch: { |ioException| ... }
+	 * Reads the content of the file at the given path without blocking the calling actor.
+	 * The content is subsequently passed to the first closure as a text.
+	 * Any exception is signalled by invoking the "catch:" closure.
+	 * @return nil
+	 */
+	public ATNil base_readFile_then_catch_(ATObject path, ATClosure success, ATClosure failure) throws InterpreterException {
+		AsyncFileIO.read(path.asNativeText().javaValue, ELActor.currentActor(), success, failure);
+		return Evaluator.getNil();
+	}
+	
+	/**
+	 * writeFile: path content: text then: { ... } catch: { |ioException| ... }
+	 * Replaces the content of the file at the given path by the given text, creating the file if necessary,
+	 * without blocking the calling actor. Once the text is written, the first closure is invoked.
+	 * Any exception is signalled by invoking the "catch:" closure.
+	 * @return nil
+	 */
+	public ATNil base_writeFile_content_then_catch_(ATObject path, ATObject text, ATClosure success, ATClosure failure) throws InterpreterException {
+		AsyncFileIO.write(path.asNativeText().javaValue, text.asNativeText().javaValue, ELActor.currentActor(), success, failure);
+		return Evaluator.getNil();
+	}
+	
+	/**
+	 * appendFile: path content: text then: { ... } catch: { |ioException| ... }
+	 * Equivalent to writeFile:content:then:catch:, but appends the text to the end of the file.
+	 * @return nil
+	 */
+	public ATNil base_appendFile_content_then_catch_(ATObject path, ATObject text, ATClosure success, ATClosure failure) throws InterpreterException {
+		AsyncFileIO.append(path.asNativeText().javaValue, text.asNativeText().javaValue, ELActor.currentActor(), success, failure);
 		return Evaluator.getNil();
 	}
 	
+	/**
+	 * mapFile: path
+	 * Maps the file at the given path into memory, such that its bytes and lines can be read
+	 * on demand rather than loading the entire file as one text.
+	 * @return a read-only {@link NATByteBufferView} on the content of the file
+	 * @throws XIOProblem if the file cannot be mapped
+	 */
+	public NATByteBufferView base_mapFile_(ATObject path) throws InterpreterException {
+		return NATByteBufferView.mapFile(path.asNativeText().javaValue);
+	}
+	
+	/**
+	 * exec: cmd args: [arg1, ...] onOutput: { |text, stream| ... } onExit: { |exitValue| ... }
+	 * Starts cmd as a child process with the given arguments, without blocking the calling actor.
+	 * The child's output is passed in chunks to the onOutput: closure, together with the name of
+	 * the stream it was read from ("stdout" or "stderr"). Once the child has exited and all of its
+	 * output was delivered, its exit value is passed to the onExit: closure.
+	 * Both closures are applied asynchronously by the calling actor.
+	 * @return nil
+	 * @throws XIOProblem if the child process could not be started
+	 */
+	public ATNil base_exec_args_onOutput_onExit_(ATObject cmd, ATTable args, ATClosure onOutput, ATClosure onExit) throws InterpreterException {
+		ATObject[] arguments = args.asNativeTable().elements_;
+		String[] command = new String[arguments.length + 1];
+		command[0] = cmd.asNativeText().javaValue;
+		for (int i = 0; i < arguments.length; i++) {
+			ATObject argument = arguments[i];
+			command[i + 1] = argument.isNativeText() ? argument.asNativeText().javaValue : argument.meta_print().javaValue;
+		}
+		ProcessPump.getInstance().start(command, ELActor.currentActor(), onOutput, onExit);
+		return Evaluator.getNil();
+	}
+	
+	/**
+	 * def debug() { makes the current actor debuggable }
+	 * Attaches the debugger to the actor executing this method only, rather than to all actors as -d does.
+	 * @return true if the debugger was attached, false if the actor was debuggable already
+	 * @throws XIOProblem if the debugger code (initDebugger.at) cannot be read
+	 */
+	public ATBoolean base_debug() throws InterpreterException {
+		return NATBoolean.atValue(shell_.attachDebugger());
+	}
+	
+	/**
+	 * def heap(n) { a table describing the memory usage of the n actors that retain the most memory }
+	 * Every row of the table is of the form [actor, retainedBytes, mailboxBytes, allocatedBytes, mailboxLength],
+	 * where actor is the name of the actor's thread. Retained sizes are estimates, see {@link ActorRegistry}.
+	 * @return a table of rows in descending order of retained bytes
+	 */
+	public ATTable base_heap(ATNumber n) throws InterpreterException {
+		List<ActorRegistry.Usage> usages = shell_.getActorRegistry().measure(n.asNativeNumber().javaValue);
+		ATObject[] rows = new ATObject[usages.size()];
+		for (int i = 0; i < rows.length; i++) {
+			ActorRegistry.Usage usage = usages.get(i);
+			rows[i] = NATTable.atValue(new ATObject[] {
+				NATText.atValue(usage.actor),
+				NATSystemMetrics.number(usage.getRetainedBytes()),
+				NATSystemMetrics.number(usage.mailboxBytes),
+				NATSystemMetrics.number(usage.allocatedBytes),
+				NATNumber.atValue(usage.mailboxLength) });
+		}
+		return NATTable.atValue(rows);
+	}
+	
 	/**
 	 * def reset() { reset VM into fresh startup state and re-evaluates init and main file }
 	 * 
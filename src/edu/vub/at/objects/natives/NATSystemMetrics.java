@@ -0,0 +1,207 @@
+/**
+ * AmbientTalk/2 Project
+ * NATSystemMetrics.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at.objects.natives;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import edu.vub.at.ActorRegistry;
+import edu.vub.at.EmbeddableAmbientTalk;
+import edu.vub.at.actors.natives.ELActor;
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.objects.ATNumeric;
+import edu.vub.util.TempFieldGenerator;
+
+/**
+ * Instances of this class represent the 'system.metrics' object, which allows AmbientTalk code to
+ * inspect the resource usage of the virtual machine, e.g. to shed load under memory pressure.
+ * 
+ * The interface of the metrics object is as follows:
+ * 
+ *  def metrics := object: {
+ *   def nanoTime := nanoseconds elapsed since an arbitrary but fixed point in time
+ *   def heapUsed := bytes of heap memory in use
+ *   def heapCommitted := bytes of heap memory reserved by the JVM
+ *   def gcCount := number of garbage collections so far
+ *   def gcTime := total number of milliseconds spent in garbage collections
+ *   def threadCount := number of live threads
+ *   def daemonThreadCount := number of live daemon threads
+ *   def peakThreadCount := maximum number of live threads so far
+ *   def mailboxLength := number of messages waiting in the mailbox of the current actor
+ *   def eventsScheduled := number of evaluations scheduled by the shell
+ *   def eventsProcessed := number of evaluations scheduled by the shell which were processed
+ *   def eventsQueued := number of evaluations scheduled by the shell which are waiting to be started
+ *   def eventsRejected := number of evaluations refused by the shell's admission control
+ * }
+ * 
+ * Except for nanoTime, mailboxLength and the event counts, the values stem from a snapshot of the JVM's management beans
+ * which is shared by all actors and refreshed at most once every {@link #_SNAPSHOT_INTERVAL_MILLIS_}
+ * milliseconds, such that polling the metrics frequently remains cheap.
+ * Values that may not fit in an AmbientTalk number are represented as fractions.
+ * <p>
+ * The metrics object reads the event counts of the shell that created it, so it is passed by reference.
+ */
+public final class NATSystemMetrics extends NATByRef {
+
+	public static final long _SNAPSHOT_INTERVAL_MILLIS_ = 50;
+	
+	private static final long _ORIGIN_ = System.nanoTime();
+	private static final MemoryMXBean _MEMORY_ = ManagementFactory.getMemoryMXBean();
+	private static final ThreadMXBean _THREADS_ = ManagementFactory.getThreadMXBean();
+	private static final List<GarbageCollectorMXBean> _COLLECTORS_ = ManagementFactory.getGarbageCollectorMXBeans();
+	
+	private static final class Snapshot {
+		final long takenAt_ = System.nanoTime();
+		final long heapUsed_;
+		final long heapCommitted_;
+		final long gcCount_;
+		final long gcTime_;
+		final int threadCount_ = _THREADS_.getThreadCount();
+		final int daemonThreadCount_ = _THREADS_.getDaemonThreadCount();
+		final int peakThreadCount_ = _THREADS_.getPeakThreadCount();
+		
+		Snapshot() {
+			MemoryUsage heap = _MEMORY_.getHeapMemoryUsage();
+			heapUsed_ = heap.getUsed();
+			heapCommitted_ = heap.getCommitted();
+			long count = 0;
+			long time = 0;
+			for (GarbageCollectorMXBean collector : _COLLECTORS_) {
+				// collectors report -1 if the value is undefined
+				count += Math.max(0, collector.getCollectionCount());
+				time += Math.max(0, collector.getCollectionTime());
+			}
+			gcCount_ = count;
+			gcTime_ = time;
+		}
+	}
+	
+	private static volatile Snapshot _SNAPSHOT_ = new Snapshot();
+	
+	private static Snapshot snapshot() {
+		Snapshot snapshot = _SNAPSHOT_;
+		if (System.nanoTime() - snapshot.takenAt_ > _SNAPSHOT_INTERVAL_MILLIS_ * 1000000) {
+			// concurrent refreshes are harmless, the last one wins
+			snapshot = new Snapshot();
+			_SNAPSHOT_ = snapshot;
+		}
+		return snapshot;
+	}
+	
+	private final EmbeddableAmbientTalk shell_;
+	
+	public NATSystemMetrics(EmbeddableAmbientTalk shell) {
+		shell_ = shell;
+	}
+	
+	public NATText meta_print() throws InterpreterException {
+		return NATText.atValue("<native object: system.metrics>");
+	}
+	
+	public NATText impl_asCode(TempFieldGenerator objectMap) throws InterpreterException {
+		if (objectMap.contains(this)) {
+			return objectMap.getName(this);
+		}
+		return objectMap.put(this, NATText.atValue("system.metrics"));
+	}
+	
+	/**
+	 * def nanoTime := nanoseconds elapsed since the metrics were first accessed in this JVM,
+	 * which is only meaningful to measure elapsed time.
+	 */
+	public ATNumeric base_nanoTime() {
+		return number(System.nanoTime() - _ORIGIN_);
+	}
+	
+	public ATNumeric base_heapUsed() {
+		return number(snapshot().heapUsed_);
+	}
+	
+	public ATNumeric base_heapCommitted() {
+		return number(snapshot().heapCommitted_);
+	}
+	
+	public ATNumeric base_gcCount() {
+		return number(snapshot().gcCount_);
+	}
+	
+	public ATNumeric base_gcTime() {
+		return number(snapshot().gcTime_);
+	}
+	
+	public ATNumeric base_threadCount() {
+		return NATNumber.atValue(snapshot().threadCount_);
+	}
+	
+	public ATNumeric base_daemonThreadCount() {
+		return NATNumber.atValue(snapshot().daemonThreadCount_);
+	}
+	
+	public ATNumeric base_peakThreadCount() {
+		return NATNumber.atValue(snapshot().peakThreadCount_);
+	}
+	
+	/**
+	 * def mailboxLength := the number of messages waiting in the mailbox of the actor reading it,
+	 * or 0 if the mailboxes of actors cannot be accessed (see {@link ActorRegistry#mailboxOf})
+	 */
+	public ATNumeric base_mailboxLength() {
+		return NATNumber.atValue(ActorRegistry.mailboxLength(ELActor.currentActor()));
+	}
+	
+	public ATNumeric base_eventsScheduled() {
+		return number(shell_.getScheduledEventCount());
+	}
+	
+	public ATNumeric base_eventsProcessed() {
+		return number(shell_.getProcessedEventCount());
+	}
+	
+	public ATNumeric base_eventsQueued() {
+		return NATNumber.atValue(shell_.getQueuedEventCount());
+	}
+	
+	public ATNumeric base_eventsRejected() {
+		return number(shell_.getRejectedEventCount());
+	}
+	
+	/**
+	 * @return the value as an AmbientTalk number if it fits, or as a fraction otherwise
+	 */
+	static ATNumeric number(long value) {
+		if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			return NATNumber.atValue((int) value);
+		}
+		return NATFraction.atValue(value);
+	}
+
+}
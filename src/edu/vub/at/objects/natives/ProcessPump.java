@@ -0,0 +1,243 @@
+/**
+ * AmbientTalk/2 Project
+ * ProcessPump.java
+ * (c) Programming Technology Lab, 2006 - 2007
+ * Authors: Tom Van Cutsem & Stijn Mostinckx
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package edu.vub.at.objects.natives;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.vub.at.IATEvents;
+import edu.vub.at.actors.eventloops.Event;
+import edu.vub.at.actors.natives.ELActor;
+import edu.vub.at.eval.Evaluator;
+import edu.vub.at.exceptions.XIOProblem;
+import edu.vub.at.objects.ATClosure;
+import edu.vub.at.util.logging.Logging;
+
+/**
+ * The ProcessPump relays the output of child processes started by <tt>system.exec:args:onOutput:onExit:</tt>
+ * to the actors that started them. Rather than dedicating a blocked thread to every stream of every child,
+ * a single shared thread periodically polls all children for output that can be read without blocking.
+ * <p>
+ * Output is delivered to the owner actor in chunks, using {@link Evaluator#trigger}. To apply backpressure,
+ * a child whose owner has more than {@link #_MAX_PENDING_CHUNKS_} undelivered chunks is not read from until
+ * the owner catches up, such that the child eventually blocks when its output pipe fills up.
+ */
+final class ProcessPump {
+
+	/** the maximum number of chunks queued for an owner actor before its child process is no longer read */
+	public static final int _MAX_PENDING_CHUNKS_ = 16;
+	
+	private static final int _CHUNK_SIZE_ = 8192;
+	private static final long _POLL_INTERVAL_MILLIS_ = 10;
+	private static final NATText _STDOUT_ = NATText.atValue("stdout");
+	private static final NATText _STDERR_ = NATText.atValue("stderr");
+	
+	private static ProcessPump _INSTANCE_ = null;
+	
+	/**
+	 * @return the shared pump, whose polling thread is started when a first child process is registered
+	 */
+	public static synchronized ProcessPump getInstance() {
+		if (_INSTANCE_ == null) {
+			_INSTANCE_ = new ProcessPump();
+		}
+		return _INSTANCE_;
+	}
+	
+	/**
+	 * An output stream of a child process, together with the bytes read from it that do not yet form
+	 * complete characters.
+	 */
+	private static final class Output {
+		final InputStream stream_;
+		final NATText name_;
+		final CharsetDecoder decoder_ = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final ByteBuffer bytes_ = ByteBuffer.allocate(_CHUNK_SIZE_);
+		final CharBuffer chars_ = CharBuffer.allocate(_CHUNK_SIZE_);
+		boolean closed_ = false;
+		
+		Output(InputStream stream, NATText name) {
+			stream_ = stream;
+			name_ = name;
+		}
+	}
+	
+	/**
+	 * A child process together with its owner actor and the closures to notify.
+	 */
+	private static final class Child {
+		final Process process_;
+		final ELActor owner_;
+		final ATClosure onOutput_;
+		final ATClosure onExit_;
+		final Output stdout_;
+		final Output stderr_;
+		final AtomicInteger pending_ = new AtomicInteger();
+		
+		Child(Process process, ELActor owner, ATClosure onOutput, ATClosure onExit) {
+			process_ = process;
+			owner_ = owner;
+			onOutput_ = onOutput;
+			onExit_ = onExit;
+			stdout_ = new Output(process.getInputStream(), _STDOUT_);
+			stderr_ = new Output(process.getErrorStream(), _STDERR_);
+		}
+	}
+	
+	private final List<Child> children_ = new CopyOnWriteArrayList<Child>();
+	private final ScheduledExecutorService poller_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "AmbientTalk process pump");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private ProcessPump() {
+		poller_.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				pollChildren();
+			}
+		}, _POLL_INTERVAL_MILLIS_, _POLL_INTERVAL_MILLIS_, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Starts the given command as a child process, whose standard input is closed immediately.
+	 * 
+	 * @param owner the actor to which output and the exit value are delivered
+	 * @param onOutput applied to two arguments: a chunk of text and the name of the stream ("stdout" or "stderr")
+	 * @param onExit applied to the exit value of the child, after all its output was delivered
+	 * @throws XIOProblem if the process could not be started
+	 */
+	public void start(String[] command, ELActor owner, ATClosure onOutput, ATClosure onExit) throws XIOProblem {
+		Process process;
+		try {
+			process = new ProcessBuilder(command).start();
+			process.getOutputStream().close();
+		} catch (IOException e) {
+			throw new XIOProblem(e);
+		}
+		children_.add(new Child(process, owner, onOutput, onExit));
+	}
+	
+	private void pollChildren() {
+		for (Child child : children_) {
+			try {
+				boolean exited = hasExited(child.process_);
+				pump(child, child.stdout_, exited);
+				pump(child, child.stderr_, exited);
+				if (exited && child.stdout_.closed_ && child.stderr_.closed_) {
+					children_.remove(child);
+					IATEvents.trigger(child.owner_, child.onExit_,
+							NATTable.of(NATNumber.atValue(child.process_.exitValue())), "exec:onExit:");
+				}
+			} catch (IOException e) {
+				children_.remove(child);
+				child.process_.destroy();
+				Logging.Actor_LOG.error("error reading the output of a child process: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the output that is available and delivers it in chunks, until no more output is available
+	 * or the owner is falling behind. Reads never block: once the child has exited and no more output is
+	 * available, the stream is considered closed, even if the end of the stream was not reached. The pipe
+	 * may still be held open by a grandchild that inherited it, and waiting for its end would stall the
+	 * output of all other children.
+	 */
+	private void pump(Child child, Output output, boolean exited) throws IOException {
+		ByteBuffer bytes = output.bytes_;
+		CharBuffer chars = output.chars_;
+		while (!output.closed_ && child.pending_.get() < _MAX_PENDING_CHUNKS_) {
+			int available = Math.min(output.stream_.available(), bytes.remaining());
+			int read;
+			if (available > 0) {
+				read = output.stream_.read(bytes.array(), bytes.position(), available);
+			} else if (exited) {
+				read = -1;
+			} else {
+				return;
+			}
+			output.closed_ = read < 0;
+			if (!output.closed_) {
+				bytes.position(bytes.position() + read);
+			}
+			bytes.flip();
+			// incomplete multi-byte characters are kept in the buffer until the next read
+			output.decoder_.decode(bytes, chars, output.closed_);
+			if (output.closed_) {
+				output.decoder_.flush(chars);
+			}
+			bytes.compact();
+			chars.flip();
+			if (chars.hasRemaining()) {
+				deliver(child, chars.toString(), output.name_);
+			}
+			chars.clear();
+		}
+	}
+	
+	/**
+	 * Delivers the chunk using {@link Evaluator#trigger} and schedules an acknowledgement right behind it,
+	 * which the owner processes after it has applied the output closure to the chunk.
+	 */
+	private void deliver(final Child child, String chunk, NATText streamName) {
+		child.pending_.incrementAndGet();
+		IATEvents.trigger(child.owner_, child.onOutput_, NATTable.of(NATText.atValue(chunk), streamName), "exec:onOutput:");
+		child.owner_.receive(new Event("exec:acknowledge") {
+			public void process(Object owner) {
+				child.pending_.decrementAndGet();
+			}
+		});
+	}
+	
+	private static boolean hasExited(Process process) {
+		try {
+			process.exitValue();
+			return true;
+		} catch (IllegalThreadStateException e) {
+			return false;
+		}
+	}
+	
+}
@@ -27,10 +27,13 @@
  */
 package edu.vub.at.objects.natives;
 
+import edu.vub.at.IATEvents;
+import edu.vub.at.actors.natives.ELActor;
 import edu.vub.at.actors.natives.SharedActorField;
 import edu.vub.at.eval.Evaluator;
 import edu.vub.at.exceptions.InterpreterException;
 import edu.vub.at.exceptions.XDuplicateSlot;
+import edu.vub.at.exceptions.XIOProblem;
 import edu.vub.at.exceptions.XIllegalOperation;
 import edu.vub.at.objects.ATObject;
 import edu.vub.at.objects.grammar.ATSymbol;
@@ -39,14 +42,21 @@ import edu.vub.at.objects.natives.grammar.AGSymbol;
 import edu.vub.at.util.logging.Logging;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 
 /**
  * SAFLobby initializes the lobby namespace with a slot for each directory in the object path.
  * The slot name corresponds to the last name of the directory. The slot value corresponds
  * to a namespace object initialized with the directory.
  * 
+ * Entries of the object path may also be jar or zip archives, whose slot value is a namespace
+ * object for the root of the archive. Every archive is indexed once, and its index is shared by
+ * all actors.
+ * 
  * If the user did not specify an objectpath, the default is .;$AT_OBJECTPATH;$AT_HOME
  *
  * @author smostinc
@@ -55,38 +65,99 @@ public class SAFLobby extends SharedActorField {
 
 	private static final AGSymbol _LOBBY_SYM_ = AGSymbol.jAlloc("lobby");
 	
-	/** a list whose entries are arrays [ pathname:String, dir:File ] */
-	private final LinkedList objectPathRoots_;
+	/**
+	 * An entry of the object path, of which everything but the namespace object itself is computed
+	 * once and shared by all actors. Namespaces load and cache modules, so every actor needs its own.
+	 */
+	private static final class Root {
+		final String name_;
+		final String path_;
+		final File dir_;
+		final boolean archive_;
+		/** the selectors under which the namespace is defined, e.g. [ at, lang ] for a root named 'at.lang' */
+		final ATSymbol[] selectors_;
+		
+		Root(String name, File dir) {
+			name_ = name;
+			path_ = File.separator + name;
+			dir_ = dir;
+			archive_ = ArchiveIndex.isArchive(dir);
+			String[] path = name.split("\\.");
+			selectors_ = new ATSymbol[path.length];
+			for (int i = 0; i < path.length; i++) {
+				// convert the path name into an AmbientTalk selector
+				selectors_[i] = Reflection.downSelector(path[i]);
+			}
+		}
+	}
+	
+	private final Root[] roots_;
+	
+	/**
+	 * maps the archives on the object path to their index, which is created by the first actor that needs it
+	 * (until then, the archive is mapped to null)
+	 */
+	private final Map<File, ArchiveIndex> archives_ = new HashMap<File, ArchiveIndex>();
 	
+	/** keeps the lobbies initialized by this field up to date when modules change */
+	private final LobbyWatcher watcher_;
+	
+	/**
+	 * @param objectPathRoots a list whose entries are arrays [ pathname:String, dir:File ], where dir may also be an archive
+	 */
 	public SAFLobby(LinkedList objectPathRoots) {
 		super(_LOBBY_SYM_);
-		objectPathRoots_ = objectPathRoots;
+		watcher_ = new LobbyWatcher(objectPathRoots);
+		roots_ = new Root[objectPathRoots.size()];
+		int i = 0;
+		for (Iterator iter = objectPathRoots.iterator(); iter.hasNext();) {
+			Object[] entry = (Object[]) iter.next();
+			Root root = new Root((String) entry[0], (File) entry[1]);
+			if (root.archive_) {
+				archives_.put(root.dir_, null);
+			}
+			roots_[i++] = root;
+		}
+	}
+	
+	public LobbyWatcher getWatcher() {
+		return watcher_;
 	}
 	
 	public ATObject initialize() throws InterpreterException {
+		IATEvents.SharedActorFieldInit event = new IATEvents.SharedActorFieldInit();
+		event.begin();
+		try {
+			initializeLobby();
+		} finally {
+			event.end("lobby");
+		}
+		return null;
+	}
+	
+	private void initializeLobby() throws InterpreterException {
 		NATObject lobby = Evaluator.getLobbyNamespace();
+		// this method is executed by the actor whose lobby is initialized
+		watcher_.register(ELActor.currentActor());
 		
 		// for each entry in the object path, add a namespace slot to the lobby
-		for (Iterator iter = objectPathRoots_.iterator(); iter.hasNext();) {
-			Object[] entry = (Object[]) iter.next();
-			
-			String name = (String) entry[0];
-			File dir = (File) entry[1];
-				
+		for (int r = 0; r < roots_.length; r++) {
+			Root root = roots_[r];
 			try {
+				ATObject namespace = root.archive_
+				                   ? new NATArchiveNamespace(root.path_, archiveIndex(root.dir_), "")
+				                   : new NATNamespace(root.path_, root.dir_);
+				
 				// If there are dots in name, walk the tree and insert it at the right place.
-				if (name.indexOf(".") == -1) {
-					// convert the path name into an AmbientTalk selector
-					ATSymbol selector = Reflection.downSelector(name);
-					lobby.meta_defineField(selector, new NATNamespace(File.separator+name, dir));
+				if (root.selectors_.length == 1) {
+					lobby.meta_defineField(root.selectors_[0], namespace);
 				} else {
-					String path[] = name.split("\\.");
 					ATObject current = lobby;
-					for (int i = 0; i < path.length; i++) {
-						ATSymbol selector = Reflection.downSelector(path[i]);
+					for (int i = 0; i < root.selectors_.length; i++) {
+						ATSymbol selector = root.selectors_[i];
 						
-						if (i == path.length - 1) {							
-							current.meta_defineField(selector, new NATNamespace(File.separator+name, dir));
+						if (i == root.selectors_.length - 1) {							
+							current.meta_defineField(selector, namespace);
 						} else {
 							if (!current.meta_respondsTo(selector).asNativeBoolean().javaValue) {
 								ATObject newNamespace = new NATObject();
@@ -99,15 +170,29 @@ public class SAFLobby extends SharedActorField {
 					}
 				}
 			} catch (XDuplicateSlot e) {
-			  Logging.Init_LOG.warn("Shadowed path on classpath: " + name);
+			  Logging.Init_LOG.warn("Shadowed path on classpath: " + root.name_);
 			} catch (InterpreterException e) {
 			  // should not happen as the meta_defineField is native
 			  Logging.Init_LOG.fatal("Fatal error while constructing objectpath:", e);
 			  throw new XIllegalOperation("Fatal error while constructing objectpath: " + e.getMessage());
 			}
 		}
-		
-		return null;
+	}
+	
+	private ArchiveIndex archiveIndex(File archive) throws XIOProblem {
+		synchronized (archives_) {
+			ArchiveIndex index = archives_.get(archive);
+			if (index == null) {
+				try {
+					index = ArchiveIndex.open(archive);
+				} catch (IOException e) {
+					throw new XIOProblem(e);
+				}
+				Logging.Init_LOG.info("Indexed " + index.size() + " files in archive " + archive.getPath());
+				archives_.put(archive, index);
+			}
+			return index;
+		}
 	}
 
 }
@@ -29,6 +29,7 @@ package edu.vub.at.objects.natives;
 
 import edu.vub.at.EmbeddableAmbientTalk;
 import edu.vub.at.IAT;
+import edu.vub.at.IATEvents;
 import edu.vub.at.actors.natives.ELActor;
 import edu.vub.at.actors.natives.SharedActorField;
 import edu.vub.at.exceptions.InterpreterException;
@@ -37,7 +38,9 @@ import edu.vub.at.objects.natives.grammar.AGSymbol;
 
 /**
  * SAFSystem initialises the "system" field with an object which provides access to the 
- * input and output streams of IAT.
+ * input and output streams of IAT. The command-line arguments are converted into AmbientTalk
+ * texts once, and shared by the system objects of all actors. As every actor initializes this
+ * field, it also registers the actor with the shell's {@link edu.vub.at.ActorRegistry}.
  *
  * @author smostinc
  */
@@ -45,17 +48,25 @@ public class SAFSystem extends SharedActorField {
 
 	private static final AGSymbol _SYSTEM_SYM_ = AGSymbol.jAlloc("system");
 
-	private final String[] commandLineArguments_;
+	private final ATObject[] commandLineArguments_;
 	private final IAT shell_;
 	
 	public SAFSystem(IAT shell, String[] commandLineArguments) {
 		super(_SYSTEM_SYM_);
-		commandLineArguments_ = commandLineArguments;
+		commandLineArguments_ = NATSystem.convertArguments(commandLineArguments);
 		shell_ = shell;
 	}
 
 	public ATObject initialize() throws InterpreterException {
-		return new NATSystem(shell_, commandLineArguments_);
+		IATEvents.SharedActorFieldInit event = new IATEvents.SharedActorFieldInit();
+		event.begin();
+		try {
+			// this method is executed by the actor whose system field is initialized
+			shell_.getActorRegistry().register(ELActor.currentActor());
+			return new NATSystem(shell_, commandLineArguments_);
+		} finally {
+			event.end("system");
+		}
 	}
 
 }
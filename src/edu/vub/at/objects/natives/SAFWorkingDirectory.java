@@ -29,6 +29,7 @@ package edu.vub.at.objects.natives;
 
 import java.io.File;
 
+import edu.vub.at.IATEvents;
 import edu.vub.at.actors.natives.SharedActorField;
 import edu.vub.at.eval.Evaluator;
 import edu.vub.at.exceptions.InterpreterException;
@@ -36,13 +37,16 @@ import edu.vub.at.objects.ATObject;
 
 /**
  * SAFWorkingDirectory initialises the field "~" to the current directory, allowing a file to 
- * refer to its peers using a relative id.
+ * refer to its peers using a relative id. Whether the directory exists, and its absolute path,
+ * are determined once for all actors.
  *
  * @author smostinc
  */
 public class SAFWorkingDirectory extends SharedActorField {
 
 	private final File workingDirectory_;
+	/** the absolute path of the working directory, or null if it does not exist */
+	private final String path_;
 	
 	/**
 	 * Default constructor: when no working directory can be derived, use the directory from which
@@ -55,13 +59,20 @@ public class SAFWorkingDirectory extends SharedActorField {
 	public SAFWorkingDirectory(File path) {
 		super(Evaluator._CURNS_SYM_);
 		workingDirectory_ = path;
+		path_ = path.exists() ? path.getAbsolutePath() : null;
 	}
 
 	public ATObject initialize() throws InterpreterException {
-		if(workingDirectory_.exists())
-			return new NATNamespace(workingDirectory_.getAbsolutePath(), workingDirectory_);
-		else 
-			return null;
+		IATEvents.SharedActorFieldInit event = new IATEvents.SharedActorFieldInit();
+		event.begin();
+		try {
+			if(path_ != null)
+				return new NATNamespace(path_, workingDirectory_);
+			else 
+				return null;
+		} finally {
+			event.end("~");
+		}
 	}
 
 }
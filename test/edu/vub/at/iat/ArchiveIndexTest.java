@@ -0,0 +1,63 @@
+package edu.vub.at.iat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import edu.vub.at.objects.natives.ArchiveIndex;
+
+import junit.framework.TestCase;
+
+public class ArchiveIndexTest extends TestCase {
+	
+	private static File createArchive() throws Exception {
+		File archive = File.createTempFile("atlib", ".zip");
+		archive.deleteOnExit();
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			zip.putNextEntry(new ZipEntry("at/lang/"));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("at/lang/futures.at"));
+			zip.write("def makeFuture() { nil }".getBytes("UTF-8"));
+			zip.closeEntry();
+			
+			byte[] stored = "def x := 1;".getBytes("UTF-8");
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			ZipEntry entry = new ZipEntry("at/support/util.at");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(stored.length);
+			entry.setCrc(crc.getValue());
+			zip.putNextEntry(entry);
+			zip.write(stored);
+			zip.closeEntry();
+			zip.setComment("the end of central directory record is followed by this comment");
+		} finally {
+			zip.close();
+		}
+		return archive;
+	}
+	
+	public void testLookup() throws Exception {
+		File archive = createArchive();
+		ArchiveIndex index = ArchiveIndex.open(archive);
+		assertTrue(ArchiveIndex.isArchive(archive));
+		assertEquals(2, index.size());
+		assertTrue(index.isDirectory(""));
+		assertTrue(index.isDirectory("at"));
+		assertTrue(index.isDirectory("at/support"));
+		assertFalse(index.isDirectory("at/lang/futures.at"));
+		assertTrue(index.isFile("at/lang/futures.at"));
+		assertFalse(index.isFile("at/lang"));
+		assertNull(index.read("at/missing.at"));
+	}
+	
+	public void testReadStoredAndDeflatedEntries() throws Exception {
+		ArchiveIndex index = ArchiveIndex.open(createArchive());
+		assertEquals("def makeFuture() { nil }", index.readText("at/lang/futures.at"));
+		assertEquals("def x := 1;", index.readText("at/support/util.at"));
+	}
+	
+}
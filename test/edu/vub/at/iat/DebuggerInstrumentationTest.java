@@ -0,0 +1,27 @@
+package edu.vub.at.iat;
+
+import edu.vub.at.IAT;
+import edu.vub.at.objects.ATObject;
+import edu.vub.at.parser.NATParser;
+
+import junit.framework.TestCase;
+
+public class DebuggerInstrumentationTest extends TestCase {
+	
+	public void testOnlyStatementsMissingFromTheInitFileAreEvaluated() throws Exception {
+		ATObject[] instrumentation = IAT.debuggerInstrumentation(
+				NATParser.parse("init.at", "def a := 1;\ndef b() { a + 1 };\nsystem.println(\"booted\")"),
+				NATParser.parse("initDebugger.at", "def a := 1;\ndef debugging := true;\ndef b() { a + 1 };\nsystem.println(\"booted\");\ndef trace := debugging"));
+		assertEquals(2, instrumentation.length);
+		assertTrue(instrumentation[0].meta_print().javaValue.startsWith("def debugging"));
+		assertTrue(instrumentation[1].meta_print().javaValue.startsWith("def trace"));
+	}
+	
+	public void testInitFileWithoutInstrumentation() throws Exception {
+		ATObject[] instrumentation = IAT.debuggerInstrumentation(
+				NATParser.parse("init.at", "def a := 1;\ndef b := 2"),
+				NATParser.parse("initDebugger.at", "def a := 1;\ndef b := 2"));
+		assertEquals(0, instrumentation.length);
+	}
+	
+}
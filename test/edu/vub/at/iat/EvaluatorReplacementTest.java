@@ -0,0 +1,161 @@
+package edu.vub.at.iat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.vub.at.EmbeddableAmbientTalk;
+import edu.vub.at.IATEvents;
+import edu.vub.at.IATIO;
+import edu.vub.at.IATIOStandard;
+import edu.vub.at.actors.natives.SharedActorField;
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.exceptions.XParseError;
+import edu.vub.at.objects.ATObject;
+
+import junit.framework.TestCase;
+
+public class EvaluatorReplacementTest extends TestCase {
+	
+	private static final class Shell extends EmbeddableAmbientTalk {
+		
+		Object perform(Callable<Object> task) throws Exception {
+			return sync_performTask(task);
+		}
+		
+		Object perform(Callable<Object> task, long timeoutMillis) throws Exception {
+			return sync_performTask(task, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		
+		long eval(String script) throws InterpreterException {
+			return evalToLong(script);
+		}
+		
+		protected ATObject handleParseError(String script, XParseError e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+		
+		protected ATObject handleATException(String script, InterpreterException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+		
+		protected void abort(String message, Exception cause) {
+			throw new IllegalStateException(message, cause);
+		}
+		
+		public SharedActorField computeSystemObject(Object[] arguments) {
+			return null;
+		}
+		
+		protected IATIO getIatio() {
+			return IATIOStandard._INSTANCE_;
+		}
+	}
+	
+	private volatile boolean stopRunaway_ = false;
+	
+	private Callable<Object> returning(final String value) {
+		return new Callable<Object>() {
+			public Object call() {
+				return value;
+			}
+		};
+	}
+	
+	public void testCallerQueuedBehindRunawayTaskCompletes() throws Exception {
+		final Shell shell = new Shell();
+		shell.initialize(IATEvents.parse("test", "nil"), new SharedActorField[0], "test", "127.0.0.1");
+		// a single waiting task is admitted, so a permit that is never returned rejects all later tasks
+		shell.setAdmissionControl(1, EmbeddableAmbientTalk.RejectionPolicy.FAIL_FAST, 0);
+		
+		final CountDownLatch running = new CountDownLatch(1);
+		final Object[] outcomes = new Object[2];
+		Thread runawayCaller = new Thread() {
+			public void run() {
+				try {
+					outcomes[0] = shell.perform(new Callable<Object>() {
+						public Object call() {
+							running.countDown();
+							while (!stopRunaway_) {
+								// ignores interruption
+							}
+							return "runaway";
+						}
+					}, 1000);
+				} catch (Exception e) {
+					outcomes[0] = e;
+				}
+			}
+		};
+		Thread queuedCaller = new Thread() {
+			public void run() {
+				try {
+					outcomes[1] = shell.perform(returning("queued"));
+				} catch (Exception e) {
+					outcomes[1] = e;
+				}
+			}
+		};
+		try {
+			runawayCaller.start();
+			assertTrue(running.await(5, TimeUnit.SECONDS));
+			queuedCaller.start();
+			// make sure the second caller waits behind the runaway task before the latter times out
+			while (shell.getQueuedEventCount() == 0) {
+				Thread.sleep(1);
+			}
+			assertTrue(runawayCaller.isAlive());
+			
+			runawayCaller.join(5000);
+			queuedCaller.join(5000);
+			assertTrue(outcomes[0] instanceof TimeoutException);
+			assertEquals("queued", outcomes[1]);
+			assertEquals(0, shell.getQueuedEventCount());
+			assertEquals("later", shell.perform(returning("later")));
+		} finally {
+			stopRunaway_ = true;
+		}
+	}
+	
+	public void testQueuedTaskTimesOutWithoutReplacingEvaluator() throws Exception {
+		final Shell shell = new Shell();
+		shell.initialize(IATEvents.parse("test", "nil"), new SharedActorField[0], "test", "127.0.0.1");
+		shell.eval("def answer := 42");
+		
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Object[] outcome = new Object[1];
+		Thread slowCaller = new Thread() {
+			public void run() {
+				try {
+					outcome[0] = shell.perform(new Callable<Object>() {
+						public Object call() throws Exception {
+							running.countDown();
+							release.await();
+							return "slow";
+						}
+					});
+				} catch (Exception e) {
+					outcome[0] = e;
+				}
+			}
+		};
+		slowCaller.start();
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		try {
+			// waits behind the slow evaluation, and never starts
+			shell.perform(returning("queued"), 100);
+			fail("expected the queued task to time out");
+		} catch (TimeoutException e) {
+			// expected
+		} finally {
+			release.countDown();
+		}
+		slowCaller.join(5000);
+		assertEquals("slow", outcome[0]);
+		// the evaluator actor was kept, so the definitions made before are still there
+		assertEquals(42, shell.eval("answer"));
+	}
+	
+}
@@ -0,0 +1,54 @@
+package edu.vub.at.iat;
+
+import java.util.Map;
+
+import edu.vub.at.ExceptionAggregator;
+
+import junit.framework.TestCase;
+
+public class ExceptionAggregatorTest extends TestCase {
+	
+	private Exception raise(String message) {
+		// all exceptions are created at the same line, hence they share their topmost frame
+		return new IllegalStateException(message);
+	}
+	
+	private Exception raiseOther(String message) {
+		return new IllegalArgumentException(message);
+	}
+	
+	public void testRepeatedExceptionsAreSummarized() {
+		ExceptionAggregator aggregator = new ExceptionAggregator(1, 1000);
+		assertEquals(ExceptionAggregator._FIRST_OCCURRENCE_, aggregator.record(raise("a"), 0));
+		assertEquals(ExceptionAggregator._SUPPRESSED_, aggregator.record(raise("b"), 10));
+		assertEquals(ExceptionAggregator._SUPPRESSED_, aggregator.record(raise("c"), 999));
+		assertEquals(3, aggregator.record(raise("a"), 1000));
+		assertEquals(ExceptionAggregator._SUPPRESSED_, aggregator.record(raise("a"), 1500));
+		assertEquals(1, aggregator.getCounts().size());
+		assertEquals(5, aggregator.getCounts().values().iterator().next().longValue());
+	}
+	
+	public void testDistinctTypesAreReportedSeparately() {
+		ExceptionAggregator aggregator = new ExceptionAggregator(1, 1000);
+		assertEquals(ExceptionAggregator._FIRST_OCCURRENCE_, aggregator.record(raise("a"), 0));
+		assertEquals(ExceptionAggregator._FIRST_OCCURRENCE_, aggregator.record(raiseOther("a"), 0));
+		assertEquals(2, aggregator.getCounts().size());
+		aggregator.clear();
+		assertEquals(ExceptionAggregator._FIRST_OCCURRENCE_, aggregator.record(raise("a"), 0));
+	}
+	
+	public void testPendingCountsAreDrained() {
+		ExceptionAggregator aggregator = new ExceptionAggregator(1, 1000);
+		aggregator.record(raise("a"), 0);
+		aggregator.record(raise("a"), 10);
+		aggregator.record(raise("a"), 20);
+		assertTrue(aggregator.drainUnreported(500).isEmpty());
+		Map<String, Long> unreported = aggregator.drainUnreported(1000);
+		assertEquals(1, unreported.size());
+		String fingerprint = unreported.keySet().iterator().next();
+		assertTrue(ExceptionAggregator.describe(fingerprint).startsWith(IllegalStateException.class.getName() + " at "));
+		assertEquals(2, unreported.get(fingerprint).longValue());
+		assertTrue(aggregator.drainUnreported().isEmpty());
+	}
+	
+}
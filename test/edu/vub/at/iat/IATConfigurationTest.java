@@ -0,0 +1,52 @@
+package edu.vub.at.iat;
+
+import edu.vub.at.IATConfiguration;
+
+import junit.framework.TestCase;
+
+public class IATConfigurationTest extends TestCase {
+	
+	public void testParseArguments() {
+		IATConfiguration config = IATConfiguration.fromArguments(new String[] {
+				"-q", "-e", "1+1", "--Xcluster", "4", "main.at", "a", "b" });
+		assertTrue(config.quiet);
+		assertFalse(config.print);
+		assertEquals("1+1", config.eval);
+		assertEquals(4, config.cluster);
+		assertFalse(config.watch);
+		assertEquals("main.at", config.file);
+		assertEquals(2, config.arguments.length);
+		assertEquals("b", config.arguments[1]);
+	}
+	
+	public void testParseBenchmarkArguments() {
+		IATConfiguration config = IATConfiguration.fromArguments(new String[] {
+				"--bench", "--benchfn", "fib,fact", "--warmup", "5", "--iterations", "50", "--forks", "2", "--json", "-", "bench.at" });
+		assertTrue(config.bench);
+		assertEquals("fib,fact", config.benchFunctions);
+		assertEquals(5, config.benchWarmup);
+		assertEquals(50, config.benchIterations);
+		assertEquals(2, config.benchForks);
+		assertEquals("-", config.benchJson);
+		assertEquals("bench.at", config.file);
+	}
+	
+	public void testFramedImpliesQuiet() {
+		IATConfiguration config = IATConfiguration.fromArguments(new String[] { "--framed" });
+		assertTrue(config.framed);
+		assertTrue(config.quiet);
+	}
+	
+	public void testConfigurationsAreIndependent() {
+		IATConfiguration quiet = IATConfiguration.fromArguments(new String[] { "-q", "--watch" });
+		IATConfiguration verbose = IATConfiguration.fromArguments(new String[0]);
+		assertTrue(quiet.quiet);
+		assertTrue(quiet.watch);
+		assertFalse(verbose.quiet);
+		assertFalse(verbose.watch);
+		assertNull(verbose.file);
+		assertEquals(0, verbose.arguments.length);
+		assertEquals(">", verbose.inputPrompt);
+	}
+	
+}
@@ -0,0 +1,100 @@
+package edu.vub.at.iat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+import edu.vub.at.IATIOFramed;
+import edu.vub.at.JSON;
+
+import junit.framework.TestCase;
+
+public class IATIOFramedTest extends TestCase {
+	
+	private static void writeFrame(DataOutputStream out, String json) throws Exception {
+		byte[] payload = json.getBytes("UTF-8");
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+	
+	private static Map<?, ?> readFrame(DataInputStream in) throws Exception {
+		byte[] payload = new byte[in.readInt()];
+		in.readFully(payload);
+		return (Map<?, ?>) JSON.parse(new String(payload, "UTF-8"));
+	}
+	
+	public void testRequestsAndInput() throws Exception {
+		ByteArrayOutputStream requests = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(requests);
+		writeFrame(out, "{\"type\":\"input\",\"text\":\"hello\"}");
+		writeFrame(out, "{\"type\":\"eval\",\"id\":7,\"code\":\"1 + \\\"\\u00e9\\\"\"}");
+		
+		IATIOFramed framed = new IATIOFramed(new ByteArrayInputStream(requests.toByteArray()), new ByteArrayOutputStream());
+		Map<String, Object> request = framed.readRequest();
+		assertEquals("eval", request.get("type"));
+		assertEquals(Long.valueOf(7), request.get("id"));
+		assertEquals("1 + \"\u00e9\"", request.get("code"));
+		assertEquals("hello", framed.readln());
+		assertNull(framed.readRequest());
+		assertNull(framed.readln());
+	}
+	
+	public void testOutputFrames() throws Exception {
+		ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		IATIOFramed framed = new IATIOFramed(new ByteArrayInputStream(new byte[0]), replies);
+		framed.writeFrame("result", "id", "a", "value", "[1, 2]");
+		framed.setCurrentRequest(Long.valueOf(3));
+		framed.println("printed");
+		framed.setCurrentRequest(null);
+		framed.getOutput().println("logged");
+		
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(replies.toByteArray()));
+		Map<?, ?> result = readFrame(in);
+		assertEquals("result", result.get("type"));
+		assertEquals("a", result.get("id"));
+		assertEquals("[1, 2]", result.get("value"));
+		Map<?, ?> printed = readFrame(in);
+		assertEquals("stdout", printed.get("type"));
+		assertEquals(Long.valueOf(3), printed.get("id"));
+		assertEquals("printed\n", printed.get("text"));
+		Map<?, ?> logged = readFrame(in);
+		assertNull(logged.get("id"));
+		assertEquals("logged" + System.getProperty("line.separator"), logged.get("text"));
+	}
+	
+	public void testMalformedFramesAreSkipped() throws Exception {
+		ByteArrayOutputStream requests = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(requests);
+		writeFrame(out, "{\"type\":\"eval\",\"id\":\"x\",\"code\":}");
+		writeFrame(out, "[1]");
+		writeFrame(out, "{\"type\":\"eval\",\"id\":8,\"code\":\"1\"}");
+		
+		IATIOFramed framed = new IATIOFramed(new ByteArrayInputStream(requests.toByteArray()), new ByteArrayOutputStream());
+		try {
+			framed.readRequest();
+			fail("expected a malformed frame");
+		} catch (IATIOFramed.MalformedFrameException e) {
+			assertEquals("x", e.getRequestId());
+		}
+		try {
+			framed.readRequest();
+			fail("expected a malformed frame");
+		} catch (IATIOFramed.MalformedFrameException e) {
+			assertNull(e.getRequestId());
+		}
+		assertEquals(Long.valueOf(8), framed.readRequest().get("id"));
+		assertNull(framed.readRequest());
+	}
+	
+	public void testNumbersOutsideTheRangeOfLongs() {
+		assertEquals(new BigDecimal("123456789012345678901234567890"), JSON.parse("123456789012345678901234567890"));
+		assertEquals(Long.valueOf(Long.MIN_VALUE), JSON.parse(String.valueOf(Long.MIN_VALUE)));
+		assertEquals("[null,null,1.5]", JSON.write(Arrays.asList(
+				Double.valueOf(Double.NaN), Double.valueOf(Double.POSITIVE_INFINITY), Double.valueOf(1.5))));
+	}
+	
+}
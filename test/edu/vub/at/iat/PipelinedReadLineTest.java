@@ -0,0 +1,63 @@
+package edu.vub.at.iat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Writer;
+
+import edu.vub.at.IAT;
+import edu.vub.at.IATConfiguration;
+import edu.vub.at.IATIOStandard;
+import edu.vub.at.exceptions.InterpreterException;
+
+import junit.framework.TestCase;
+
+public class PipelinedReadLineTest extends TestCase {
+	
+	private static final long _TIMEOUT_MILLIS_ = 10000;
+	
+	private IAT shell_;
+	
+	/**
+	 * Waits until the script evaluates to the given number, evaluation errors (e.g. of variables that
+	 * are not yet defined) count as a different value.
+	 */
+	private void awaitLong(String script, long expected) throws Exception {
+		long deadline = System.currentTimeMillis() + _TIMEOUT_MILLIS_;
+		while (true) {
+			try {
+				if (shell_.evalToLong(script) == expected) {
+					return;
+				}
+			} catch (InterpreterException e) {
+				// not yet evaluated by the REPL
+			}
+			assertTrue("timed out waiting for " + script, System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+	
+	public void testReadNextLineFromPipelinedJob() throws Exception {
+		PipedOutputStream input = new PipedOutputStream();
+		IATConfiguration config = new IATConfiguration();
+		config.pipeline = true;
+		config.quiet = true;
+		config.exitOnQuit = false;
+		shell_ = new IAT(config, new IATIOStandard(new PipedInputStream(input), new ByteArrayOutputStream(), false));
+		
+		Writer lines = new OutputStreamWriter(input, "UTF-8");
+		lines.write("def line := nil; def waiting := 1; system.readNextLine: { |text| line := text } catch: { |e| line := e }\n");
+		lines.flush();
+		// once waiting is defined, the job has requested its line
+		awaitLong("waiting", 1);
+		
+		lines.write("hello\n");
+		lines.write("waiting := 2\n");
+		lines.flush();
+		awaitLong("waiting", 2);
+		assertEquals("hello", shell_.evalToString("line"));
+		lines.close();
+	}
+	
+}
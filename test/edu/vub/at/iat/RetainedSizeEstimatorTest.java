@@ -0,0 +1,99 @@
+package edu.vub.at.iat;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.vub.at.RetainedSizeEstimator;
+
+import junit.framework.TestCase;
+
+public class RetainedSizeEstimatorTest extends TestCase {
+	
+	private static final class Node {
+		final long[] payload_;
+		final Object next_;
+		
+		Node(int size, Object next) {
+			payload_ = new long[size];
+			next_ = next;
+		}
+	}
+	
+	private static final class Boundary {
+		final long[] shared_ = new long[100000];
+	}
+	
+	public void testArraysAndFieldsAreCounted() {
+		RetainedSizeEstimator estimator = new RetainedSizeEstimator(1000, 1000);
+		RetainedSizeEstimator.Estimate estimate = estimator.estimate(new Node(1000, new Node(1000, null)));
+		assertFalse(estimate.truncated);
+		assertEquals(4, estimate.objects);
+		// two long arrays of 8000 bytes each, plus headers
+		assertTrue(estimate.bytes >= 16000 && estimate.bytes < 16200);
+	}
+	
+	public void testBoundariesAndExclusionsAreNotWalked() {
+		Node excluded = new Node(100000, null);
+		RetainedSizeEstimator estimator = new RetainedSizeEstimator(1000, 1000, Boundary.class);
+		RetainedSizeEstimator.Estimate estimate = estimator.estimate(
+				new Object[] { new Boundary(), excluded, new Node(10, null) }, excluded);
+		assertTrue(estimate.bytes < 1000);
+	}
+	
+	public void testLargeCollectionsAreSampled() {
+		List<Node> nodes = new ArrayList<Node>();
+		for (int i = 0; i < 10000; i++) {
+			nodes.add(new Node(100, null));
+		}
+		RetainedSizeEstimator estimator = new RetainedSizeEstimator(100000, 100);
+		RetainedSizeEstimator.Estimate estimate = estimator.estimate(nodes);
+		assertFalse(estimate.truncated);
+		assertTrue(estimate.objects < 1000);
+		// every node retains about 840 bytes
+		assertTrue(estimate.bytes > 7000000 && estimate.bytes < 10000000);
+	}
+	
+	public void testSampledCollectionsAreNotIteratedFully() {
+		final int[] visited = new int[1];
+		Collection<Node> nodes = new AbstractCollection<Node>() {
+			public int size() {
+				return 1000000;
+			}
+			public Iterator<Node> iterator() {
+				return new Iterator<Node>() {
+					public boolean hasNext() {
+						return visited[0] < 1000000;
+					}
+					public Node next() {
+						visited[0]++;
+						// a fresh node each time, as identical elements are only counted once
+						return new Node(100, null);
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+		// wrapped in a JDK collection, which is walked through its public interface
+		RetainedSizeEstimator.Estimate estimate = new RetainedSizeEstimator(100000, 100).estimate(Collections.unmodifiableCollection(nodes));
+		assertEquals(100, visited[0]);
+		// every node retains about 840 bytes, extrapolated to the size of the collection
+		assertTrue(estimate.bytes > 700000000L && estimate.bytes < 1000000000L);
+	}
+	
+	public void testWalkIsBounded() {
+		Object list = null;
+		for (int i = 0; i < 1000; i++) {
+			list = new Node(0, list);
+		}
+		RetainedSizeEstimator.Estimate estimate = new RetainedSizeEstimator(100, 10).estimate(list);
+		assertTrue(estimate.truncated);
+		assertEquals(100, estimate.objects);
+	}
+	
+}
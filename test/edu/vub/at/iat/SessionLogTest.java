@@ -0,0 +1,72 @@
+package edu.vub.at.iat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import edu.vub.at.IATIORecorder;
+import edu.vub.at.IATIOReplay;
+import edu.vub.at.IATIOStandard;
+import edu.vub.at.SessionLog;
+
+import junit.framework.TestCase;
+
+public class SessionLogTest extends TestCase {
+	
+	public void testRecordAndReplay() throws Exception {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		IATIOStandard console = new IATIOStandard(
+				new ByteArrayInputStream("1 + 2\nhello\tworld\n:errors\n".getBytes("UTF-8")), new ByteArrayOutputStream(), false);
+		IATIORecorder recorder = new IATIORecorder(console, new SessionLog(log, "test"), "<<");
+		recorder.println("banner");
+		assertEquals("1 + 2", recorder.readln(">"));
+		recorder.print(">>3\n");
+		assertEquals("hello\tworld", recorder.readln("<<"));
+		assertEquals(":errors", recorder.readln());
+		recorder.getOutput().println("0 distinct exceptions");
+		assertNull(recorder.readln());
+		
+		List<SessionLog.Exchange> session = SessionLog.read(new StringReader(log.toString("UTF-8")));
+		assertEquals(4, session.size());
+		assertEquals(SessionLog._START_, session.get(0).kind);
+		assertEquals("banner\n", session.get(0).output);
+		assertEquals(SessionLog._INPUT_, session.get(1).kind);
+		assertEquals(">>3\n", session.get(1).output);
+		assertEquals(SessionLog._READLINE_, session.get(2).kind);
+		assertEquals("hello\tworld", session.get(2).text);
+		assertEquals(SessionLog._COMMAND_, session.get(3).kind);
+		assertEquals("0 distinct exceptions\n", session.get(3).output);
+		assertTrue(session.get(3).latencyMicros >= 0);
+		
+		IATIOReplay replay = new IATIOReplay(session, "<<");
+		replay.println("banner");
+		assertEquals("1 + 2", replay.readln(">"));
+		replay.print(">>4\n");
+		assertEquals("hello\tworld", replay.readln("<<"));
+		assertEquals(":errors", replay.readln());
+		replay.getOutput().println("0 distinct exceptions");
+		assertNull(replay.readln());
+		replay.awaitEnd();
+		
+		List<IATIOReplay.Result> results = replay.getResults();
+		assertEquals(4, results.size());
+		assertFalse(results.get(0).isDifferent());
+		assertTrue(results.get(1).isDifferent());
+		assertFalse(results.get(2).isDifferent());
+		assertFalse(results.get(3).isDifferent());
+		assertTrue(replay.hasDifferences());
+		assertTrue(replay.report().contains("+++ replayed output of #1\n>>4\n"));
+	}
+	
+	public void testMalformedLog() {
+		try {
+			SessionLog.read(new StringReader("0\tinput\tno start entry\n"));
+			fail("a session log must start with a start entry");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	
+}